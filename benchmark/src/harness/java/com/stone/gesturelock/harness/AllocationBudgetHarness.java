@@ -0,0 +1,463 @@
+package com.stone.gesturelock.harness;
+
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternBlacklist;
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.PatternSnapshot;
+import com.stone.gesturelock.core.PatternStrength;
+import com.stone.gesturelock.core.PatternStrengthMeter;
+import com.stone.gesturelock.core.TraceEventLog;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  触摸热点路径的分配预算检查，防止已经做到不分配对象的输入处理再次退化：
+ *
+ *  在 GestureEngine 上按脚本绘制手势（与 GestureLockViewGroup 相同的几何参数），覆盖单点命中、线段命中、
+ *  自动选中经过的格子、设置手势时的强度和黑名单检查、跟踪区间以及解锁时的后台比较。
+ *  预热后用调用线程的已分配字节数（com.sun.management.ThreadMXBean）统计：
+ *
+ *  1. 一次手势中所有 MOVE 的分配，平均每个事件超过 --max-move-bytes（默认0，即完全不分配）时失败；
+ *  2. 每次 UP 的分配（解锁时包括在调用线程中处理比较结果，不包括后台线程计算摘要），超过 --max-up-bytes 时失败。
+ *
+ *  统计的是所有测量轮次的中位数，真正的分配每一轮都会出现，JIT 编译和反优化偶尔引起的分配不计入。
+ *  逃逸分析会消除一部分分配，而 ART 不会，所以需要用 -XX:-DoEscapeAnalysis 运行（gradle test 和 allocationBudget 已经设置）。
+ *  设置手势第二次确认成功时会提交后台任务计算答案摘要，这个路径不在统计范围内。
+ *
+ *  gradle check 通过 AllocationBudgetTest 用默认参数运行，超出预算时构建失败；单独运行时有任何失败以状态码 1 退出，
+ *  JVM 不支持按线程统计分配时也会失败。
+ */
+
+public final class AllocationBudgetHarness {
+
+    /**
+     * 面板的边长
+     */
+    private static final int WIDTH = 1080;
+    /**
+     * 相邻两个格子之间的触点个数
+     */
+    private static final int STEPS = 8;
+    /**
+     * 等待后台比较的最长时间
+     */
+    private static final long VERIFY_TIMEOUT_MILLIS = 10000L;
+
+    private int[] mCounts = {3, 4, 5, 6};
+    private int mWarmup = 2000;
+    private int mRuns = 200;
+    private long mMaxMoveBytes = 0;
+    private long mMaxUpBytes = 512;
+
+    /**
+     * 两次读取已分配字节数之间读取本身的分配，测量结果中减去
+     */
+    private long mBaseline;
+
+    private final BlockingQueue<Runnable> mResults = new LinkedBlockingQueue<>();
+    private final Executor mResultExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mResults.offer(command);
+        }
+    };
+    private final Callbacks mCallbacks = new Callbacks();
+    private final TraceEventLog mTracer = new TraceEventLog(1024, 0);
+
+    /**
+     * 一轮中每个 MOVE 事件的最大平均分配、MOVE 事件个数和每次 UP 的最大分配
+     */
+    private long mMoveBytes;
+    private int mMoveEvents;
+    private long mUpBytes;
+
+    public static void main(String[] args) throws Exception {
+        AllocationBudgetHarness harness = new AllocationBudgetHarness();
+        if (!harness.parse(args)) {
+            System.err.println("usage: AllocationBudgetHarness [--counts 3,4,5,6] [--warmup N] [--runs N]"
+                    + " [--max-move-bytes N] [--max-up-bytes N]");
+            System.exit(2);
+        }
+        System.exit(harness.run() ? 0 : 1);
+    }
+
+    private boolean parse(String[] args) {
+        if (args.length % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            if (arg.equals("--counts")) {
+                String[] values = value.split(",");
+                mCounts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    mCounts[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if (arg.equals("--warmup")) {
+                mWarmup = Integer.parseInt(value);
+            } else if (arg.equals("--runs")) {
+                mRuns = Integer.parseInt(value);
+            } else if (arg.equals("--max-move-bytes")) {
+                mMaxMoveBytes = Long.parseLong(value);
+            } else if (arg.equals("--max-up-bytes")) {
+                mMaxUpBytes = Long.parseLong(value);
+            } else {
+                return false;
+            }
+        }
+        return mRuns > 0 && mWarmup >= 0;
+    }
+
+    boolean run() throws Exception {
+        if (allocatedBytes() < 0) {
+            System.out.println("FAILED: per-thread allocation counters are not supported by this JVM");
+            return false;
+        }
+        calibrate();
+        boolean passed = true;
+        for (int count : mCounts) {
+            for (Scenario scenario : Scenario.values()) {
+                passed &= check(scenario, new Script(count, scenario));
+            }
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private void calibrate() {
+        long baseline = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long before = allocatedBytes();
+            baseline = Math.min(baseline, allocatedBytes() - before);
+        }
+        mBaseline = baseline;
+    }
+
+    private boolean check(Scenario scenario, Script script) throws Exception {
+        for (int i = 0; i < mWarmup; i++) {
+            perform(scenario, script);
+        }
+        long[] moves = new long[mRuns];
+        long[] ups = new long[mRuns];
+        for (int i = 0; i < mRuns; i++) {
+            perform(scenario, script);
+            moves[i] = mMoveBytes;
+            ups[i] = mUpBytes;
+        }
+        Arrays.sort(moves);
+        Arrays.sort(ups);
+        long moveBytes = moves[mRuns / 2];
+        long upBytes = ups[mRuns / 2];
+        boolean ok = moveBytes <= mMaxMoveBytes && upBytes <= mMaxUpBytes;
+        System.out.println(scenario.mName + " count=" + script.mCount + ": " + (ok ? "ok" : "FAILED, over budget")
+                + " moves=" + mMoveEvents + " bytes/move=" + moveBytes + " bytes/up=" + upBytes);
+        return ok;
+    }
+
+    /**
+     * 用新的 engine 按顺序绘制脚本中的每个手势，记录这一轮中 MOVE 和 UP 的最大分配
+     */
+    private void perform(Scenario scenario, Script script) throws InterruptedException {
+        GestureEngine engine = newEngine(scenario, script);
+        mMoveBytes = 0;
+        mMoveEvents = 0;
+        mUpBytes = 0;
+        for (int g = 0; g < script.mXs.length; g++) {
+            int[] xs = script.mXs[g];
+            int[] ys = script.mYs[g];
+            engine.onTouchDown(xs[0], ys[0]);
+
+            long before = allocatedBytes();
+            for (int i = 0; i < xs.length; i++) {
+                engine.onTouchMove(xs[i], ys[i]);
+            }
+            long moveBytes = allocatedBytes() - before - mBaseline;
+            // 向上取整，一个事件分配了对象就不会是0
+            mMoveBytes = Math.max(mMoveBytes, (moveBytes + xs.length - 1) / xs.length);
+            mMoveEvents += xs.length;
+
+            before = allocatedBytes();
+            engine.onTouchUp();
+            long upBytes = allocatedBytes() - before - mBaseline;
+            // 等待时队列本身会分配，只统计处理结果
+            while (engine.getState() == GestureEngine.STATE_VERIFYING) {
+                Runnable result = mResults.poll(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (result == null) {
+                    throw new IllegalStateException("verification timed out");
+                }
+                before = allocatedBytes();
+                result.run();
+                upBytes += allocatedBytes() - before - mBaseline;
+            }
+            mUpBytes = Math.max(mUpBytes, upBytes);
+            engine.finishFeedback();
+        }
+    }
+
+    private GestureEngine newEngine(Scenario scenario, Script script) {
+        GestureEngine engine = new GestureEngine(mCallbacks);
+        engine.setCount(script.mCount);
+        engine.getHitTester().setGeometry(script.mCount, script.mCellSize, script.mMargin, 0, 0);
+        engine.getHitTester().setHitArea(script.mCellSize - 2 * script.mHitPadding, false);
+        engine.setSegmentHitTest(scenario.isSegmentHitTest);
+        engine.setSelectBetween(scenario.isSelectBetween);
+        engine.setResultExecutor(mResultExecutor);
+        engine.setListener(mCallbacks);
+        engine.setTryTimes(3);
+        if (scenario.isStrength) {
+            // 引擎在后台创建强度表，先同步创建好，测量时的每个手势都会计算强度
+            PatternStrengthMeter.of(script.mCount);
+            engine.setStrengthListener(mCallbacks);
+            engine.setBlacklist(script.mBlacklist);
+        }
+        if (scenario.isTraced) {
+            engine.setTracer(mTracer);
+            engine.setAttemptListener(mCallbacks);
+        }
+        if (scenario.mAction == GestureEngine.ACTION_UNLOCK) {
+            engine.setAnswerHash(script.mAnswerHash);
+        }
+        engine.setAction(scenario.mAction);
+        return engine;
+    }
+
+    /**
+     * 当前线程已经分配的字节数，JVM 不支持时返回 -1
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * 检查的场景：绘制的手势依次为
+     * 设置手势时 答案（第一次）、反向的答案（确认失败），
+     * 检查强度时先多一次在黑名单中的第一行直线（被拒绝），
+     * 解锁时 反向的答案（错误）、答案（正确），
+     * 自动选中经过的格子时只在四个角上有触点。
+     */
+    private enum Scenario {
+        HIT_TEST("hitTest", GestureEngine.ACTION_LOCK, false, false, false, false),
+        SEGMENT("segment", GestureEngine.ACTION_LOCK, true, false, false, false),
+        SELECT_BETWEEN("selectBetween", GestureEngine.ACTION_LOCK, false, true, false, false),
+        STRENGTH("strength", GestureEngine.ACTION_LOCK, true, false, true, true),
+        UNLOCK("unlock", GestureEngine.ACTION_UNLOCK, true, true, false, true);
+
+        final String mName;
+        final int mAction;
+        final boolean isSegmentHitTest;
+        final boolean isSelectBetween;
+        final boolean isStrength;
+        final boolean isTraced;
+
+        Scenario(String name, int action, boolean segmentHitTest, boolean selectBetween, boolean strength,
+                 boolean traced) {
+            this.mName = name;
+            this.mAction = action;
+            this.isSegmentHitTest = segmentHitTest;
+            this.isSelectBetween = selectBetween;
+            this.isStrength = strength;
+            this.isTraced = traced;
+        }
+    }
+
+    /**
+     * 预先生成的触点，测量时不再分配对象
+     */
+    private static final class Script {
+
+        final int mCount;
+        final int mCellSize;
+        final int mMargin;
+        final int mHitPadding;
+        final int[][] mXs;
+        final int[][] mYs;
+        PatternHash mAnswerHash;
+        FutureTask<PatternBlacklist> mBlacklist;
+
+        Script(int count, Scenario scenario) throws IOException {
+            mCount = count;
+            mCellSize = (int) (4 * WIDTH * 1.0f / (5 * count + 1));
+            mMargin = (int) (mCellSize * 0.25);
+            mHitPadding = (int) (mCellSize * 0.15);
+
+            int[] answer;
+            if (scenario.isSelectBetween && scenario.mAction == GestureEngine.ACTION_LOCK) {
+                // 顺时针经过四个角，只有角上的触点，中间的格子靠自动选中
+                int n = count * count;
+                answer = new int[]{1, count, n, n - count + 1};
+            } else {
+                answer = randomAnswer(count);
+            }
+            int[] reversed = new int[answer.length];
+            for (int i = 0; i < answer.length; i++) {
+                reversed[i] = answer[answer.length - 1 - i];
+            }
+            int steps = scenario.isSelectBetween && scenario.mAction == GestureEngine.ACTION_LOCK ? 1 : STEPS;
+
+            List<int[]> gestures = new ArrayList<>();
+            if (scenario.mAction == GestureEngine.ACTION_UNLOCK) {
+                gestures.add(reversed);
+                gestures.add(answer);
+                mAnswerHash = PatternHash.create(Pattern.of(count, answer), 1);
+            } else {
+                if (scenario.isStrength) {
+                    // 第一行的直线，只经过相邻的格子，两种命中方式选中的都正好是这些格子
+                    int[] line = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        line[i] = i + 1;
+                    }
+                    gestures.add(line);
+                    mBlacklist = newBlacklist(count, line);
+                }
+                gestures.add(answer);
+                gestures.add(reversed);
+            }
+
+            mXs = new int[gestures.size()][];
+            mYs = new int[gestures.size()][];
+            for (int g = 0; g < gestures.size(); g++) {
+                int[] ids = gestures.get(g);
+                int[] xs = new int[(ids.length - 1) * steps + 1];
+                int[] ys = new int[xs.length];
+                xs[0] = centerX(ids[0] - 1);
+                ys[0] = centerY(ids[0] - 1);
+                for (int i = 1; i < ids.length; i++) {
+                    int x0 = centerX(ids[i - 1] - 1);
+                    int y0 = centerY(ids[i - 1] - 1);
+                    int x1 = centerX(ids[i] - 1);
+                    int y1 = centerY(ids[i] - 1);
+                    for (int s = 1; s <= steps; s++) {
+                        xs[(i - 1) * steps + s] = x0 + (x1 - x0) * s / steps;
+                        ys[(i - 1) * steps + s] = y0 + (y1 - y0) * s / steps;
+                    }
+                }
+                mXs[g] = xs;
+                mYs[g] = ys;
+            }
+        }
+
+        private int centerX(int index) {
+            return mMargin + (index % mCount) * (mCellSize + mMargin) + mCellSize / 2;
+        }
+
+        private int centerY(int index) {
+            return mMargin + (index / mCount) * (mCellSize + mMargin) + mCellSize / 2;
+        }
+
+        /**
+         * 随机选一半的格子（至少4个）
+         */
+        private static int[] randomAnswer(int count) {
+            Random random = new Random(count);
+            int cellCount = count * count;
+            int[] ids = new int[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                ids[i] = i + 1;
+            }
+            for (int i = cellCount - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+            int[] answer = new int[Math.max(4, cellCount / 2)];
+            System.arraycopy(ids, 0, answer, 0, answer.length);
+            return answer;
+        }
+
+        /**
+         * 只包含 ids 的黑名单，已经读取完成
+         */
+        private static FutureTask<PatternBlacklist> newBlacklist(final int count, final int[] ids) {
+            FutureTask<PatternBlacklist> future = new FutureTask<>(new Callable<PatternBlacklist>() {
+                @Override
+                public PatternBlacklist call() throws IOException {
+                    PatternBlacklist.Builder builder = new PatternBlacklist.Builder().section(count);
+                    builder.add(ids);
+                    return builder.build(count);
+                }
+            });
+            future.run();
+            return future;
+        }
+    }
+
+    /**
+     * 所有回调都为空，不分配对象
+     */
+    private static final class Callbacks implements GestureEngine.Callback, GestureEngine.Listener,
+            GestureEngine.StrengthListener, GestureEngine.AttemptListener {
+
+        @Override
+        public void onCellSelected(int index, int previous) {
+        }
+
+        @Override
+        public void onCellArrow(int index, int degree) {
+        }
+
+        @Override
+        public void onFeedback(boolean succeeded, long holdMillis) {
+        }
+
+        @Override
+        public void onReset() {
+        }
+
+        @Override
+        public void onStateChanged(int state) {
+        }
+
+        @Override
+        public void onFirstLock(int action, Pattern answer) {
+        }
+
+        @Override
+        public void onSecondLockSucceeded(int action, Pattern answer) {
+        }
+
+        @Override
+        public void onSecondLockFailed(int action) {
+        }
+
+        @Override
+        public void onUnlockCorrect(int action, Pattern answer) {
+        }
+
+        @Override
+        public void onUnlockError(int action, Pattern answer, int chances) {
+        }
+
+        @Override
+        public void noMoreTry(int action) {
+        }
+
+        @Override
+        public void onStrengthChanged(PatternStrength strength) {
+        }
+
+        @Override
+        public void onWeakPattern(int action, PatternStrength strength) {
+        }
+
+        @Override
+        public void onAttempt(int action, int result, PatternSnapshot snapshot) {
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.stone.gesturelock.harness;
+
+import com.stone.gesturelock.core.PatternBlacklist;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  生成 PatternBlacklist 文件（库中的 res/raw/gesture_weak_patterns.bin）：
+ *
+ *  1. 每种网格大小（--counts）内置的常见形状：至少3个格子的直线（横、竖、斜），以及至少4个格子的
+ *     L形、U形、Z形和方框，每一步都只走到相邻的格子，包括所有起点、方向和镜像；
+ *  2. --list count:file 指定的图案列表（例如从泄露数据中整理的），每行一个图案，格子id以逗号或空格分隔，
+ *     # 开头的行忽略。
+ *
+ *  用法：BlacklistGenerator [--counts 3,4,5] [--list 3:leaked3.txt]... --out gesture_weak_patterns.bin
+ */
+
+public final class BlacklistGenerator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 横竖方向，斜方向
+     */
+    private static final int[][] ORTHOGONAL = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+    private static final int[][] DIAGONAL = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private final PatternBlacklist.Builder mBuilder = new PatternBlacklist.Builder();
+    private int mCount;
+    private int mAdded;
+
+    public static void main(String[] args) throws IOException {
+        int[] counts = {3, 4, 5};
+        List<String> lists = new ArrayList<>();
+        String out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--counts")) {
+                String[] values = args[i + 1].split(",");
+                counts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    counts[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if (args[i].equals("--list")) {
+                lists.add(args[i + 1]);
+            } else if (args[i].equals("--out")) {
+                out = args[i + 1];
+            } else {
+                out = null;
+                break;
+            }
+        }
+        if (out == null || args.length % 2 != 0) {
+            System.err.println("usage: BlacklistGenerator [--counts 3,4,5] [--list count:file]... --out file");
+            System.exit(2);
+        }
+
+        BlacklistGenerator generator = new BlacklistGenerator();
+        for (int count : counts) {
+            generator.addShapes(count);
+        }
+        for (String list : lists) {
+            int colon = list.indexOf(':');
+            generator.addList(Integer.parseInt(list.substring(0, colon)), new File(list.substring(colon + 1)));
+        }
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(out));
+        try {
+            generator.mBuilder.write(stream);
+        } finally {
+            stream.close();
+        }
+        System.out.println("wrote " + out + " (" + new File(out).length() + " bytes)");
+    }
+
+    private void begin(int count) {
+        mCount = count;
+        mAdded = 0;
+        mBuilder.section(count);
+    }
+
+    private void addShapes(int count) {
+        begin(count);
+        int n = count;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                for (int[] d : ORTHOGONAL) {
+                    addLines(x, y, d);
+                    addBends(x, y, d);
+                    addZigzags(x, y, d);
+                }
+                for (int[] d : DIAGONAL) {
+                    addLines(x, y, d);
+                }
+            }
+        }
+        System.out.println("count " + count + ": " + mAdded + " shapes");
+    }
+
+    /**
+     * 直线：至少3个格子
+     */
+    private void addLines(int x, int y, int[] d) {
+        for (int k = 2; inside(x + k * d[0], y + k * d[1]); k++) {
+            Path path = new Path(x, y);
+            path.walk(d, k);
+            add(path);
+        }
+    }
+
+    /**
+     * L形（先走 d 再转90度）、U形（再转90度走回相同的长度）和方框（再转90度，差一步回到起点）
+     */
+    private void addBends(int x, int y, int[] d) {
+        for (int side = -1; side <= 1; side += 2) {
+            int[] turn = {-d[1] * side, d[0] * side};
+            int[] back = {-d[0], -d[1]};
+            int[] up = {-turn[0], -turn[1]};
+            for (int k1 = 1; inside(x + k1 * d[0], y + k1 * d[1]); k1++) {
+                for (int k2 = 1; inside(x + k1 * d[0] + k2 * turn[0], y + k1 * d[1] + k2 * turn[1]); k2++) {
+                    Path l = new Path(x, y);
+                    l.walk(d, k1);
+                    l.walk(turn, k2);
+                    if (l.size() >= 4) {
+                        add(l);
+                    }
+                    Path u = new Path(x, y);
+                    u.walk(d, k1);
+                    u.walk(turn, k2);
+                    u.walk(back, k1);
+                    add(u);
+                    if (k2 > 1) {
+                        u.walk(up, k2 - 1);
+                        add(u);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Z形：走 k 步，斜着回到起点的正下方（或侧方），再走 k 步
+     */
+    private void addZigzags(int x, int y, int[] d) {
+        for (int side = -1; side <= 1; side += 2) {
+            int[] turn = {-d[1] * side, d[0] * side};
+            int[] diagonal = {turn[0] - d[0], turn[1] - d[1]};
+            for (int k = 1; inside(x + k * d[0], y + k * d[1]) && inside(x + k * turn[0], y + k * turn[1]); k++) {
+                Path z = new Path(x, y);
+                z.walk(d, k);
+                z.walk(diagonal, k);
+                z.walk(d, k);
+                add(z);
+            }
+        }
+    }
+
+    private boolean inside(int x, int y) {
+        return x >= 0 && y >= 0 && x < mCount && y < mCount;
+    }
+
+    private void add(Path path) {
+        if (mBuilder.add(path.toIds())) {
+            mAdded++;
+        }
+    }
+
+    private void addList(int count, File file) throws IOException {
+        begin(count);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] values = line.split("[,\\s]+");
+                int[] ids = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    ids[i] = Integer.parseInt(values[i]);
+                }
+                try {
+                    if (mBuilder.add(ids)) {
+                        mAdded++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println(file + ":" + number + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        System.out.println("count " + count + ": " + mAdded + " patterns from " + file);
+    }
+
+    /**
+     * 从一个格子开始，每一步走到相邻的格子
+     */
+    private final class Path {
+
+        private final List<Integer> mIds = new ArrayList<>();
+        private int mX;
+        private int mY;
+
+        Path(int x, int y) {
+            mX = x;
+            mY = y;
+            mIds.add(y * mCount + x + 1);
+        }
+
+        void walk(int[] d, int steps) {
+            for (int i = 0; i < steps; i++) {
+                mX += d[0];
+                mY += d[1];
+                mIds.add(mY * mCount + mX + 1);
+            }
+        }
+
+        int size() {
+            return mIds.size();
+        }
+
+        int[] toIds() {
+            int[] ids = new int[mIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mIds.get(i);
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,713 @@
+package com.stone.gesturelock.harness;
+
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.GridTopology;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.PatternSnapshot;
+import com.stone.gesturelock.core.PatternStrength;
+import com.stone.gesturelock.core.PatternStrengthMeter;
+import com.stone.gesturelock.core.PatternView;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  GestureEngine 状态机的随机测试，同时作为吞吐量测试：
+ *
+ *  每个会话随机选择网格大小（--counts）、模式（设置、解锁、修改）、尝试次数、命中方式、是否自动选中经过的格子
+ *  和最低强度，然后绘制随机的手势：手指以随机的速度平滑转向的随机游走，或者沿着答案 / 第一次设置的图案移动。
+ *  用模拟的时钟代替 GestureLockViewGroup 的延时：显示提示后经过 holdMillis 和淡出时间才调用 finishFeedback，
+ *  手势之间有随机的间隔，提示期间按下手指会提前结束提示。解锁时等待后台比较，期间随机插入被忽略的触摸事件，
+ *  或者取消比较（与界面 detach 时相同），被取消的结果仍然会在之后执行。
+ *
+ *  每个事件和回调之后检查：
+ *  1. 剩余尝试次数不为负，只在解锁回调中减一，onUnlockError 的 chances 为减一前的次数；
+ *  2. 每次尝试次数用完时 noMoreTry 恰好回调一次，之后不再处理触摸，直到重新设置尝试次数；
+ *  3. 回调与模式一致：修改模式在解锁成功之前只有解锁回调，之后只有设置回调；成功后不再有回调；
+ *     解锁结果与答案是否相同一致，第二次设置成功的图案与第一次相同；
+ *  4. onStateChanged 与 getState 一致，状态与剩余次数、是否完成、是否正在比较一致；
+ *  5. 选中的格子不重复、不越界，自动选中经过的格子时连线经过的格子都已经在之前选中；
+ *  6. 重置后没有选中的格子，提示结束并重置后状态为空闲；取消比较后不再消耗尝试次数；
+ *  7. 每个结果（包括图案太弱）对应一次 AttemptListener 回调，快照与当前的选择相同。
+ *
+ *  吞吐量按处理触摸事件、比较结果和提示结束的时间计算，不包括生成手势、检查和等待后台比较
+ *  （设置成功后在后台计算答案摘要很慢，后面的比较需要排队），墙上时间另外打印。
+ *
+ *  会话由 --seed 和会话序号决定，失败时打印复现参数和带事件日志的重放，以状态码 1 退出。
+ *
+ *  用法：GestureFuzzer [--seed N] [--sessions N] [--counts 3,4,5,6] [--session N]
+ */
+
+public final class GestureFuzzer {
+
+    /**
+     * 面板的边长
+     */
+    private static final int WIDTH = 1080;
+    /**
+     * 触点之间的时间间隔（毫秒）
+     */
+    private static final long SAMPLE_MILLIS = 8L;
+    /**
+     * 与 GestureLockViewGroup 相同的淡出时长
+     */
+    private static final long FADE_MILLIS = 150L;
+    private static final long VERIFY_TIMEOUT_MILLIS = 10000L;
+    private static final int MAX_SAMPLES = 256;
+    private static final long REPORT_NANOS = 10000000000L;
+
+    private long mSeed = System.nanoTime();
+    private int mSessions = 10000;
+    private int[] mCounts = {3, 4, 5, 6};
+    private int mOnly = -1;
+
+    private final BlockingQueue<Runnable> mResults = new LinkedBlockingQueue<>();
+    private final Executor mResultExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mResults.offer(command);
+        }
+    };
+
+    /**
+     * 所有会话的统计
+     */
+    private long mEvents;
+    private long mEngineNanos;
+    private long mGestures;
+    private long mVerifications;
+    private long mNoMoreTries;
+    private long mCompleted;
+
+    public static void main(String[] args) throws Exception {
+        GestureFuzzer fuzzer = new GestureFuzzer();
+        if (!fuzzer.parse(args)) {
+            System.err.println("usage: GestureFuzzer [--seed N] [--sessions N] [--counts 3,4,5,6] [--session N]");
+            System.exit(2);
+        }
+        System.exit(fuzzer.run() ? 0 : 1);
+    }
+
+    private boolean parse(String[] args) {
+        if (args.length % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            if (arg.equals("--seed")) {
+                mSeed = Long.parseLong(value);
+            } else if (arg.equals("--sessions")) {
+                mSessions = Integer.parseInt(value);
+            } else if (arg.equals("--counts")) {
+                String[] values = value.split(",");
+                mCounts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    mCounts[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if (arg.equals("--session")) {
+                mOnly = Integer.parseInt(value);
+            } else {
+                return false;
+            }
+        }
+        return mSessions > 0;
+    }
+
+    private boolean run() throws InterruptedException {
+        System.out.println("seed " + mSeed);
+        // 引擎在后台创建强度表，先同步创建好，会话的结果只由 --seed 和会话序号决定
+        for (int count : mCounts) {
+            PatternStrengthMeter.of(count);
+        }
+        if (mOnly >= 0) {
+            // 单独重放一个会话并打印事件日志
+            return runSession(mOnly, true);
+        }
+        long start = System.nanoTime();
+        long lastReport = start;
+        for (int i = 0; i < mSessions; i++) {
+            if (!runSession(i, false)) {
+                runSession(i, true);
+                System.out.println("reproduce with: --seed " + mSeed + " --session " + i);
+                System.out.println("FAILED");
+                return false;
+            }
+            long now = System.nanoTime();
+            if (now - lastReport > REPORT_NANOS) {
+                lastReport = now;
+                report(i + 1, now - start);
+            }
+        }
+        report(mSessions, System.nanoTime() - start);
+        System.out.println("PASSED");
+        return true;
+    }
+
+    private boolean runSession(int index, boolean verbose) throws InterruptedException {
+        Session session = new Session(new Random(mSeed ^ (index * 0x9E3779B97F4A7C15L)), verbose);
+        try {
+            session.run();
+            return true;
+        } catch (IllegalStateException e) {
+            if (verbose) {
+                System.out.print(session.mLog);
+                System.out.println("session " + index + ": " + e.getMessage());
+            }
+            return false;
+        } finally {
+            if (!verbose) {
+                mEvents += session.mEvents;
+                mEngineNanos += session.mEngineNanos;
+                mGestures += session.mGestures;
+                mVerifications += session.mVerifications;
+                mNoMoreTries += session.mNoMoreTries;
+                mCompleted += session.isDone ? 1 : 0;
+            }
+        }
+    }
+
+    private void report(int sessions, long nanos) {
+        System.out.println(String.format("%d sessions, %d gestures, %d events in %.1fs (%.2fs in engine):"
+                        + " %.0f events/s, %d verifications, %d completed, %d noMoreTry", sessions, mGestures, mEvents,
+                nanos / 1e9, mEngineNanos / 1e9, mEvents * 1e9 / Math.max(1, mEngineNanos), mVerifications,
+                mCompleted, mNoMoreTries));
+    }
+
+    /**
+     * 一个会话：一个 engine 上的一系列手势，同时实现所有回调并检查不变量
+     */
+    private final class Session implements GestureEngine.Callback, GestureEngine.Listener,
+            GestureEngine.StrengthListener, GestureEngine.AttemptListener {
+
+        private final Random mRandom;
+        private final StringBuilder mLog;
+
+        private final int mCount;
+        private final int mAction;
+        private final int mCellSize;
+        private final int mHitPadding;
+        private final GridTopology mTopology;
+        private final GestureEngine mEngine;
+
+        /**
+         * 解锁和修改时的答案以及画出它的触点
+         */
+        private Pattern mAnswer;
+        private final int[] mAnswerXs = new int[MAX_SAMPLES];
+        private final int[] mAnswerYs = new int[MAX_SAMPLES];
+        private int mAnswerLength;
+        /**
+         * 第一次设置的图案以及画出它的触点
+         */
+        private Pattern mFirstLock;
+        private final int[] mFirstXs = new int[MAX_SAMPLES];
+        private final int[] mFirstYs = new int[MAX_SAMPLES];
+        private int mFirstLength;
+
+        /**
+         * 当前手势的触点
+         */
+        private final int[] mXs = new int[MAX_SAMPLES];
+        private final int[] mYs = new int[MAX_SAMPLES];
+        private int mLength;
+
+        /**
+         * 模拟的时钟和提示结束的时间，-1表示没有提示
+         */
+        private long mClock;
+        private long mFeedbackDeadline = -1;
+        private boolean isShowingFeedback;
+
+        private int mReportedState = GestureEngine.STATE_IDLE;
+        private int mExpectedTries;
+        private boolean isUnlocked;
+        private boolean isDone;
+        /**
+         * 尝试次数变为0的次数和 noMoreTry 的回调次数
+         */
+        private int mExhausted;
+        private int mNoMoreTries;
+        /**
+         * 得出结果的次数（包括图案太弱）和 AttemptListener 的回调次数
+         */
+        private int mResultCount;
+        private int mAttemptCount;
+
+        private long mEvents;
+        private long mEngineNanos;
+        private int mGestures;
+        private int mVerifications;
+
+        Session(Random random, boolean verbose) {
+            mRandom = random;
+            mLog = verbose ? new StringBuilder() : null;
+            mCount = mCounts[random.nextInt(mCounts.length)];
+            int[] actions = {GestureEngine.ACTION_LOCK, GestureEngine.ACTION_UNLOCK, GestureEngine.ACTION_MODIFY};
+            mAction = actions[random.nextInt(actions.length)];
+            mCellSize = (int) (4 * WIDTH * 1.0f / (5 * mCount + 1));
+            int margin = (int) (mCellSize * 0.25);
+            mHitPadding = (int) (mCellSize * (0.05 + 0.2 * random.nextFloat()));
+            mTopology = GridTopology.of(mCount);
+
+            mEngine = new GestureEngine(this);
+            mEngine.setCount(mCount);
+            mEngine.getHitTester().setGeometry(mCount, mCellSize, margin, 0, 0);
+            mEngine.getHitTester().setHitArea(mCellSize - 2 * mHitPadding, random.nextBoolean());
+            mEngine.setSegmentHitTest(random.nextBoolean());
+            mEngine.setSelectBetween(random.nextBoolean());
+            mEngine.setResultExecutor(mResultExecutor);
+            mEngine.setListener(this);
+            mEngine.setAttemptListener(this);
+            if (random.nextInt(4) == 0) {
+                mEngine.setStrengthListener(this);
+                mEngine.setMinStrength(random.nextInt(PatternStrength.LEVEL_STRONG + 1));
+            }
+            mExpectedTries = 1 + random.nextInt(5);
+            mEngine.setTryTimes(mExpectedTries);
+            if (mAction != GestureEngine.ACTION_LOCK) {
+                createAnswer();
+                mEngine.setAnswerHash(PatternHash.create(mAnswer, 1));
+            }
+            log("session count=" + mCount + " action=" + mAction + " tries=" + mExpectedTries + " answer=" + mAnswer);
+            mEngine.setAction(mAction);
+            checkState();
+        }
+
+        /**
+         * 沿着随机的格子画一次，实际选中的格子作为答案
+         */
+        private void createAnswer() {
+            GestureEngine scratch = new GestureEngine(new GestureEngine.Callback() {
+                @Override
+                public void onCellSelected(int index, int previous) {
+                }
+
+                @Override
+                public void onCellArrow(int index, int degree) {
+                }
+
+                @Override
+                public void onFeedback(boolean succeeded, long holdMillis) {
+                }
+
+                @Override
+                public void onReset() {
+                }
+
+                @Override
+                public void onStateChanged(int state) {
+                }
+            });
+            scratch.setCount(mCount);
+            GestureEngine engine = mEngine;
+            scratch.getHitTester().setGeometry(mCount, mCellSize, engine.getHitTester().getMargin(), 0, 0);
+            scratch.getHitTester().setHitArea(engine.getHitTester().getHitDiameter(),
+                    engine.getHitTester().isCircular());
+            scratch.setSelectBetween(engine.isSelectBetween());
+            scratch.setAction(GestureEngine.ACTION_LOCK);
+            do {
+                scratch.reset();
+                walkCells();
+                scratch.onTouchDown(mXs[0], mYs[0]);
+                for (int i = 0; i < mLength; i++) {
+                    scratch.onTouchMove(mXs[i], mYs[i]);
+                }
+            } while (scratch.getSelection().size() == 0);
+            mAnswer = Pattern.of(mCount, scratch.getSelection());
+            System.arraycopy(mXs, 0, mAnswerXs, 0, mLength);
+            System.arraycopy(mYs, 0, mAnswerYs, 0, mLength);
+            mAnswerLength = mLength;
+        }
+
+        void run() throws InterruptedException {
+            int gestures = 1 + mRandom.nextInt(30);
+            for (int g = 0; g < gestures; g++) {
+                // 手势之间的间隔，提示可能已经结束
+                advance(mRandom.nextInt(4) == 0 ? mRandom.nextInt(3000) : mRandom.nextInt(300));
+                if (!mEngine.isAcceptingTouch()) {
+                    if (mExpectedTries == 0 && !isDone && mRandom.nextBoolean()) {
+                        // 锁定时间结束，重新设置尝试次数
+                        mExpectedTries = 1 + mRandom.nextInt(3);
+                        log("setTryTimes " + mExpectedTries);
+                        mEngine.setTryTimes(mExpectedTries);
+                        checkState();
+                    }
+                }
+                nextGesture();
+                draw();
+            }
+        }
+
+        /**
+         * 选择下一个手势的触点
+         */
+        private void nextGesture() {
+            int choice = mRandom.nextInt(10);
+            if (mAnswer != null && !isUnlocked && choice < 4) {
+                copyPath(mAnswerXs, mAnswerYs, mAnswerLength);
+            } else if (mFirstLock != null && choice < 5) {
+                copyPath(mFirstXs, mFirstYs, mFirstLength);
+            } else if (choice < 7) {
+                walkCells();
+            } else {
+                walk();
+            }
+        }
+
+        private void copyPath(int[] xs, int[] ys, int length) {
+            System.arraycopy(xs, 0, mXs, 0, length);
+            System.arraycopy(ys, 0, mYs, 0, length);
+            mLength = length;
+        }
+
+        /**
+         * 随机游走：速度随机，方向平滑变化，超出面板一点后折返
+         */
+        private void walk() {
+            double x = mRandom.nextInt(WIDTH);
+            double y = mRandom.nextInt(WIDTH);
+            double speed = 1 + mRandom.nextInt(60);
+            double heading = mRandom.nextDouble() * 2 * Math.PI;
+            mLength = 1 + mRandom.nextInt(MAX_SAMPLES);
+            for (int i = 0; i < mLength; i++) {
+                mXs[i] = (int) x;
+                mYs[i] = (int) y;
+                heading += mRandom.nextGaussian() * 0.3;
+                x += Math.cos(heading) * speed;
+                y += Math.sin(heading) * speed;
+                if (x < -50 || x > WIDTH + 50) {
+                    heading = Math.PI - heading;
+                }
+                if (y < -50 || y > WIDTH + 50) {
+                    heading = -heading;
+                }
+            }
+        }
+
+        /**
+         * 依次移动到随机格子的中心附近
+         */
+        private void walkCells() {
+            int cells = 1 + mRandom.nextInt(Math.min(9, mCount * mCount));
+            double speed = 4 + mRandom.nextInt(50);
+            mLength = 0;
+            int x0 = 0;
+            int y0 = 0;
+            for (int c = 0; c < cells && mLength < MAX_SAMPLES; c++) {
+                int index = mRandom.nextInt(mCount * mCount);
+                int jitter = Math.max(1, mHitPadding);
+                int x1 = mEngine.getHitTester().getCellLeft(index) + mCellSize / 2 + mRandom.nextInt(jitter) - jitter / 2;
+                int y1 = mEngine.getHitTester().getCellTop(index) + mCellSize / 2 + mRandom.nextInt(jitter) - jitter / 2;
+                if (c == 0) {
+                    mXs[mLength] = x1;
+                    mYs[mLength] = y1;
+                    mLength++;
+                } else {
+                    int steps = Math.max(1, (int) (Math.hypot(x1 - x0, y1 - y0) / speed));
+                    for (int s = 1; s <= steps && mLength < MAX_SAMPLES; s++) {
+                        mXs[mLength] = x0 + (x1 - x0) * s / steps;
+                        mYs[mLength] = y0 + (y1 - y0) * s / steps;
+                        mLength++;
+                    }
+                }
+                x0 = x1;
+                y0 = y1;
+            }
+        }
+
+        /**
+         * 按下、移动、抬起，之后处理后台比较
+         */
+        private void draw() throws InterruptedException {
+            mGestures++;
+            boolean accepting = mEngine.isAcceptingTouch();
+            log("gesture " + mGestures + (accepting ? "" : " (ignored)") + " samples=" + mLength);
+            touch(TOUCH_DOWN, mXs[0], mYs[0]);
+            for (int i = 0; i < mLength; i++) {
+                touch(TOUCH_MOVE, mXs[i], mYs[i]);
+            }
+            if (accepting) {
+                checkSelection();
+            }
+            int tries = mExpectedTries;
+            touch(TOUCH_UP, 0, 0);
+            while (mEngine.getState() == GestureEngine.STATE_VERIFYING) {
+                mVerifications++;
+                // 比较期间的触摸都被忽略
+                int ignored = mRandom.nextInt(3);
+                for (int i = 0; i < ignored; i++) {
+                    touch(TOUCH_DOWN, mXs[0], mYs[0]);
+                    touch(TOUCH_UP, 0, 0);
+                }
+                if (mRandom.nextInt(30) == 0) {
+                    log("cancelVerify");
+                    long start = System.nanoTime();
+                    mEngine.cancelVerify();
+                    mEngineNanos += System.nanoTime() - start;
+                    check(mExpectedTries == tries, "tries changed by a cancelled verification");
+                    check(mEngine.getSelection().size() == 0, "selection kept after cancelling");
+                    checkState();
+                    break;
+                }
+                Runnable result = mResults.poll(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                check(result != null, "verification timed out");
+                // 可能是之前被取消的比较的结果，应该被忽略
+                long start = System.nanoTime();
+                result.run();
+                mEngineNanos += System.nanoTime() - start;
+                checkState();
+            }
+        }
+
+        private static final int TOUCH_DOWN = 0;
+        private static final int TOUCH_MOVE = 1;
+        private static final int TOUCH_UP = 2;
+
+        private void touch(int action, int x, int y) {
+            mEvents++;
+            advance(SAMPLE_MILLIS);
+            long start = System.nanoTime();
+            switch (action) {
+                case TOUCH_DOWN:
+                    mEngine.onTouchDown(x, y);
+                    break;
+                case TOUCH_MOVE:
+                    mEngine.onTouchMove(x, y);
+                    break;
+                default:
+                    mEngine.onTouchUp();
+                    break;
+            }
+            mEngineNanos += System.nanoTime() - start;
+            check(mEngine.getSelection().size() <= mCount * mCount, "too many cells selected");
+            checkState();
+        }
+
+        /**
+         * 时钟前进，到时间后结束提示（GestureLockViewGroup 中由 FeedbackTimeline 调用）
+         */
+        private void advance(long millis) {
+            mClock += millis;
+            if (mFeedbackDeadline < 0 || mClock < mFeedbackDeadline) {
+                return;
+            }
+            mFeedbackDeadline = -1;
+            boolean showing = isShowingFeedback;
+            boolean shouldReset = mEngine.shouldResetAfterFeedback();
+            log("finishFeedback" + (showing ? "" : " (stale)"));
+            long start = System.nanoTime();
+            mEngine.finishFeedback();
+            mEngineNanos += System.nanoTime() - start;
+            isShowingFeedback = false;
+            checkState();
+            if (!showing) {
+                return;
+            }
+            if (shouldReset) {
+                check(mEngine.getSelection().size() == 0, "selection kept after feedback");
+                check(mEngine.getState() == GestureEngine.STATE_IDLE, "not idle after feedback: " + mEngine.getState());
+            } else {
+                int state = mEngine.getState();
+                check(state == GestureEngine.STATE_DONE || state == GestureEngine.STATE_NO_MORE_TRY,
+                        "feedback ended without reset in state " + state);
+            }
+        }
+
+        private void checkState() {
+            int state = mEngine.getState();
+            int tries = mEngine.getTryTimes();
+            check(tries >= 0, "negative tries: " + tries);
+            check(tries == mExpectedTries, "tries " + tries + ", expected " + mExpectedTries);
+            check(state == mReportedState, "state " + state + ", last reported " + mReportedState);
+            check((tries == 0) == (state == GestureEngine.STATE_NO_MORE_TRY), "state " + state + " with tries " + tries);
+            check(!isDone || tries == 0 || state == GestureEngine.STATE_DONE, "done but state " + state);
+            check(mEngine.isAcceptingTouch() == (state != GestureEngine.STATE_DONE
+                    && state != GestureEngine.STATE_VERIFYING && state != GestureEngine.STATE_NO_MORE_TRY),
+                    "accepting touch in state " + state);
+            check(mNoMoreTries == mExhausted, "noMoreTry " + mNoMoreTries + " times for " + mExhausted + " lockouts");
+            check(mAttemptCount == mResultCount, mAttemptCount + " attempts for " + mResultCount + " results");
+            check(tries != 0 || mEngine.getLockoutTime() > 0, "no lockout time");
+        }
+
+        /**
+         * 选中的格子不重复、不越界，自动选中经过的格子时连线经过的格子都已经选中
+         */
+        private void checkSelection() {
+            PatternView selection = mEngine.getSelection();
+            int cells = mCount * mCount;
+            boolean[] seen = new boolean[cells + 1];
+            for (int i = 0; i < selection.size(); i++) {
+                int id = selection.get(i);
+                check(id >= 1 && id <= cells, "cell out of range: " + id);
+                check(!seen[id], "cell selected twice: " + id);
+                if (i > 0 && mEngine.isSelectBetween()) {
+                    int from = selection.get(i - 1) - 1;
+                    for (int b = 0; b < mTopology.betweenCount(from, id - 1); b++) {
+                        check(seen[mTopology.between(from, id - 1, b) + 1], "skipped cell between "
+                                + (from + 1) + " and " + id);
+                    }
+                }
+                seen[id] = true;
+            }
+        }
+
+        private void check(boolean condition, String message) {
+            if (!condition) {
+                throw new IllegalStateException(message);
+            }
+        }
+
+        private void log(String line) {
+            if (mLog != null) {
+                mLog.append(mClock).append("ms ").append(line).append('\n');
+            }
+        }
+
+        private Pattern selection() {
+            return Pattern.of(mCount, mEngine.getSelection());
+        }
+
+        private boolean isEnrolling() {
+            return mAction == GestureEngine.ACTION_LOCK || (mAction == GestureEngine.ACTION_MODIFY && isUnlocked);
+        }
+
+        // GestureEngine.Callback
+
+        @Override
+        public void onCellSelected(int index, int previous) {
+            check(mEngine.getSelection().get(mEngine.getSelection().size() - 1) == index + 1, "selected cell mismatch");
+        }
+
+        @Override
+        public void onCellArrow(int index, int degree) {
+        }
+
+        @Override
+        public void onFeedback(boolean succeeded, long holdMillis) {
+            log("feedback " + succeeded);
+            isShowingFeedback = true;
+            mFeedbackDeadline = mClock + holdMillis + FADE_MILLIS;
+        }
+
+        @Override
+        public void onReset() {
+            check(mEngine.getSelection().size() == 0, "selection kept after reset");
+            isShowingFeedback = false;
+        }
+
+        @Override
+        public void onStateChanged(int state) {
+            check(state != mReportedState, "state reported twice: " + state);
+            mReportedState = state;
+        }
+
+        // GestureEngine.Listener
+
+        @Override
+        public void onFirstLock(int action, Pattern answer) {
+            log("firstLock " + answer);
+            check(isEnrolling() && !isDone, "firstLock while not enrolling");
+            check(answer.equals(selection()), "firstLock pattern differs from selection");
+            mFirstLock = answer;
+            copyPathTo(mFirstXs, mFirstYs);
+            mFirstLength = mLength;
+            mResultCount++;
+        }
+
+        private void copyPathTo(int[] xs, int[] ys) {
+            System.arraycopy(mXs, 0, xs, 0, mLength);
+            System.arraycopy(mYs, 0, ys, 0, mLength);
+        }
+
+        @Override
+        public void onSecondLockSucceeded(int action, Pattern answer) {
+            log("secondLockSucceeded " + answer);
+            check(isEnrolling() && !isDone, "secondLock while not enrolling");
+            check(mFirstLock != null && answer.equals(mFirstLock), "confirmed a different pattern");
+            check(mFirstLock.equals(selection()), "confirmed pattern differs from selection");
+            isDone = true;
+            mResultCount++;
+        }
+
+        @Override
+        public void onSecondLockFailed(int action) {
+            log("secondLockFailed");
+            check(isEnrolling() && !isDone, "secondLock while not enrolling");
+            check(mFirstLock != null && !mFirstLock.equals(selection()), "rejected the confirmed pattern");
+            mResultCount++;
+        }
+
+        @Override
+        public void onUnlockCorrect(int action, Pattern answer) {
+            log("unlockCorrect " + answer);
+            check(!isEnrolling() && !isDone, "unlock callback while enrolling");
+            check(answer.equals(mAnswer) && answer.equals(selection()), "unlocked with a different pattern");
+            onTriesUsed();
+            if (mAction == GestureEngine.ACTION_UNLOCK) {
+                isDone = true;
+            } else {
+                isUnlocked = true;
+            }
+            mResultCount++;
+        }
+
+        @Override
+        public void onUnlockError(int action, Pattern answer, int chances) {
+            log("unlockError " + answer + " " + chances);
+            check(!isEnrolling() && !isDone, "unlock callback while enrolling");
+            check(!answer.equals(mAnswer) && answer.equals(selection()), "rejected the answer");
+            check(chances == mExpectedTries, "chances " + chances + ", expected " + mExpectedTries);
+            onTriesUsed();
+            mResultCount++;
+        }
+
+        private void onTriesUsed() {
+            check(mEngine.getTryTimes() == mExpectedTries - 1, "tries not decremented by one");
+            mExpectedTries--;
+            if (mExpectedTries == 0) {
+                mExhausted++;
+            }
+        }
+
+        @Override
+        public void noMoreTry(int action) {
+            log("noMoreTry");
+            check(mEngine.getTryTimes() == 0, "noMoreTry with tries " + mEngine.getTryTimes());
+            mNoMoreTries++;
+            check(mNoMoreTries == mExhausted, "noMoreTry fired again");
+        }
+
+        // GestureEngine.StrengthListener
+
+        @Override
+        public void onStrengthChanged(PatternStrength strength) {
+            check(strength.getLength() == mEngine.getSelection().size(), "strength of a different pattern");
+        }
+
+        @Override
+        public void onWeakPattern(int action, PatternStrength strength) {
+            log("weakPattern " + strength.getLevel());
+            check(isEnrolling() && mFirstLock == null, "weak pattern outside the first enrolment");
+            check(strength.isBlacklisted() || strength.getLevel() < mEngine.getMinStrength(), "rejected a strong pattern");
+            mResultCount++;
+        }
+
+        // GestureEngine.AttemptListener
+
+        @Override
+        public void onAttempt(int action, int result, PatternSnapshot snapshot) {
+            mAttemptCount++;
+            check(mAttemptCount == mResultCount, "attempt without a result");
+            check(action == mAction, "attempt for action " + action);
+            PatternView selection = mEngine.getSelection();
+            check(snapshot.size() == selection.size(), "snapshot size differs from selection");
+            for (int i = 0; i < snapshot.size(); i++) {
+                check(snapshot.get(i) == selection.get(i), "snapshot differs from selection");
+            }
+        }
+    }
+}
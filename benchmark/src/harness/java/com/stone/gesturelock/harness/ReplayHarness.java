@@ -0,0 +1,296 @@
+package com.stone.gesturelock.harness;
+
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.TouchRecording;
+import com.stone.gesturelock.core.TouchReplayer;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  重放 GestureLockViewGroup.setTouchRecording 录制的 .glt 文件，用于回归测试：
+ *
+ *  1. 重放一次，记录所有 Listener 回调和最终状态，与同名的 .expected 文件比较，
+ *     没有 .expected 文件（或者指定了 --update）时写入当前结果；
+ *  2. 重放 --runs 次，统计每个触摸事件的处理时间（中位数，不包括等待后台比较）和调用线程的分配字节数，
+ *     超出 --max-event-nanos / --max-event-bytes 时失败。
+ *
+ *  有任何失败时以状态码 1 退出。
+ */
+
+public final class ReplayHarness {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String EXTENSION = ".glt";
+
+    private int[] mAnswer;
+    private int mTryTimes = 3;
+    private int mRuns = 50;
+    private long mMaxEventNanos = -1;
+    private long mMaxEventBytes = -1;
+    private boolean isUpdate = false;
+    private final List<File> mFiles = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        ReplayHarness harness = new ReplayHarness();
+        if (!harness.parse(args)) {
+            System.err.println("usage: ReplayHarness [--answer 1,2,3] [--tries N] [--runs N] [--max-event-nanos N]"
+                    + " [--max-event-bytes N] [--update] <file.glt | dir>...");
+            System.exit(2);
+        }
+        System.exit(harness.run() ? 0 : 1);
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--update")) {
+                isUpdate = true;
+            } else if (arg.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    return false;
+                }
+                String value = args[++i];
+                if (arg.equals("--answer")) {
+                    String[] ids = value.split(",");
+                    mAnswer = new int[ids.length];
+                    for (int j = 0; j < ids.length; j++) {
+                        mAnswer[j] = Integer.parseInt(ids[j].trim());
+                    }
+                } else if (arg.equals("--tries")) {
+                    mTryTimes = Integer.parseInt(value);
+                } else if (arg.equals("--runs")) {
+                    mRuns = Integer.parseInt(value);
+                } else if (arg.equals("--max-event-nanos")) {
+                    mMaxEventNanos = Long.parseLong(value);
+                } else if (arg.equals("--max-event-bytes")) {
+                    mMaxEventBytes = Long.parseLong(value);
+                } else {
+                    return false;
+                }
+            } else {
+                collect(new File(arg));
+            }
+        }
+        return !mFiles.isEmpty();
+    }
+
+    private void collect(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    collect(child);
+                }
+            }
+        } else if (file.getName().endsWith(EXTENSION)) {
+            mFiles.add(file);
+        }
+    }
+
+    private boolean run() throws Exception {
+        boolean passed = true;
+        for (File file : mFiles) {
+            TouchRecording recording = load(file);
+            PatternHash answer = mAnswer != null ? PatternHash.create(Pattern.of(recording.getCount(), mAnswer)) : null;
+            boolean ok = check(file, recording, answer);
+            ok &= measure(file, recording, answer);
+            passed &= ok;
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * 比较回调结果
+     */
+    private boolean check(File file, TouchRecording recording, PatternHash answer) throws Exception {
+        EventLog log = new EventLog();
+        GestureEngine engine = newEngine(recording, answer, log);
+        new TouchReplayer().replay(recording, engine);
+        log.append("state " + engine.getState() + " tries " + engine.getTryTimes());
+        String actual = log.toString();
+
+        File expectedFile = new File(file.getPath() + ".expected");
+        if (isUpdate || !expectedFile.isFile()) {
+            write(expectedFile, actual);
+            System.out.println(file + ": wrote " + expectedFile.getName());
+            return true;
+        }
+        String expected = new String(readFully(expectedFile), UTF_8);
+        if (!expected.equals(actual)) {
+            System.out.println(file + ": FAILED, callbacks differ\n--- expected\n" + expected + "--- actual\n" + actual);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 统计时间和分配
+     */
+    private boolean measure(File file, TouchRecording recording, PatternHash answer) throws Exception {
+        int events = Math.max(1, recording.getEventCount());
+        long[] nanos = new long[mRuns];
+        long[] bytes = new long[mRuns];
+        TouchReplayer replayer = new TouchReplayer();
+        // 预热
+        for (int i = 0; i < Math.min(10, mRuns); i++) {
+            replayer.replay(recording, newEngine(recording, answer, new EventLog()));
+        }
+        for (int i = 0; i < mRuns; i++) {
+            GestureEngine engine = newEngine(recording, answer, new EventLog());
+            long before = allocatedBytes();
+            replayer.replay(recording, engine);
+            bytes[i] = allocatedBytes() - before;
+            nanos[i] = replayer.getTouchNanos();
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+        long eventNanos = nanos[mRuns / 2] / events;
+        long eventBytes = bytes[mRuns / 2] < 0 ? -1 : bytes[mRuns / 2] / events;
+        boolean ok = (mMaxEventNanos < 0 || eventNanos <= mMaxEventNanos)
+                && (mMaxEventBytes < 0 || eventBytes < 0 || eventBytes <= mMaxEventBytes);
+        System.out.println(file + ": " + (ok ? "ok" : "FAILED, over budget") + " events=" + recording.getEventCount()
+                + " samples=" + recording.getSampleCount() + " nanos/event=" + eventNanos
+                + " bytes/event=" + (eventBytes < 0 ? "n/a" : String.valueOf(eventBytes)));
+        return ok;
+    }
+
+    private GestureEngine newEngine(TouchRecording recording, PatternHash answer, EventLog log) {
+        GestureEngine engine = new GestureEngine(log);
+        engine.setCount(recording.getCount());
+        engine.setListener(log);
+        engine.setAction(recording.getAction());
+        engine.setTryTimes(mTryTimes);
+        if (answer != null) {
+            engine.setAnswerHash(answer);
+        }
+        return engine;
+    }
+
+    /**
+     * 当前线程已经分配的字节数，JVM 不支持时返回 -1
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static TouchRecording load(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return TouchRecording.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 按顺序记录 Listener 回调，界面回调只记录提示
+     */
+    private static final class EventLog implements GestureEngine.Listener, GestureEngine.Callback {
+
+        private final StringBuilder mLog = new StringBuilder();
+
+        void append(String line) {
+            mLog.append(line).append('\n');
+        }
+
+        @Override
+        public void onFirstLock(int action, Pattern answer) {
+            append("firstLock " + answer);
+        }
+
+        @Override
+        public void onSecondLockSucceeded(int action, Pattern answer) {
+            append("secondLockSucceeded " + answer);
+        }
+
+        @Override
+        public void onSecondLockFailed(int action) {
+            append("secondLockFailed");
+        }
+
+        @Override
+        public void onUnlockCorrect(int action, Pattern answer) {
+            append("unlockCorrect " + answer);
+        }
+
+        @Override
+        public void onUnlockError(int action, Pattern answer, int chances) {
+            append("unlockError " + answer + " " + chances);
+        }
+
+        @Override
+        public void noMoreTry(int action) {
+            append("noMoreTry");
+        }
+
+        @Override
+        public void onCellSelected(int index, int previous) {
+        }
+
+        @Override
+        public void onCellArrow(int index, int degree) {
+        }
+
+        @Override
+        public void onFeedback(boolean succeeded, long holdMillis) {
+        }
+
+        @Override
+        public void onReset() {
+        }
+
+        @Override
+        public void onStateChanged(int state) {
+        }
+
+        @Override
+        public String toString() {
+            return mLog.toString();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.stone.gesturelock.benchmark;
+
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.Pattern;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *  一次手势的路径构建：按下后沿着答案的格子中心移动（每两个格子之间插入几个中间触点），
+ *  经过 GestureEngine 的命中判断和选择，最后重置。不包含手指抬起后的比较和绘制。
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EngineBenchmark {
+
+    /**
+     * 相邻两个格子之间的触点个数
+     */
+    private static final int STEPS = 8;
+
+    @Param({"false", "true"})
+    public boolean segmentHitTest;
+
+    private GestureEngine mEngine;
+    private int[] mXs;
+    private int[] mYs;
+
+    @Setup(Level.Trial)
+    public void setUp(GridState grid) {
+        mEngine = new GestureEngine(new GestureEngine.Callback() {
+            @Override
+            public void onCellSelected(int index, int previous) {
+            }
+
+            @Override
+            public void onCellArrow(int index, int degree) {
+            }
+
+            @Override
+            public void onFeedback(boolean succeeded, long holdMillis) {
+            }
+
+            @Override
+            public void onReset() {
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+            }
+        });
+        mEngine.setCount(grid.count);
+        mEngine.getHitTester().setGeometry(grid.count, grid.cellSize, grid.margin, 0, 0);
+        mEngine.getHitTester().setHitArea(grid.cellSize - 2 * grid.hitPadding, false);
+        mEngine.setSegmentHitTest(segmentHitTest);
+        mEngine.setAction(GestureEngine.ACTION_LOCK);
+
+        Pattern answer = grid.answer;
+        mXs = new int[(answer.size() - 1) * STEPS + 1];
+        mYs = new int[mXs.length];
+        for (int i = 0; i < answer.size(); i++) {
+            int x1 = grid.cellCenterX(answer.get(i) - 1);
+            int y1 = grid.cellCenterY(answer.get(i) - 1);
+            if (i == 0) {
+                mXs[0] = x1;
+                mYs[0] = y1;
+                continue;
+            }
+            int x0 = mXs[(i - 1) * STEPS];
+            int y0 = mYs[(i - 1) * STEPS];
+            for (int s = 1; s <= STEPS; s++) {
+                mXs[(i - 1) * STEPS + s] = x0 + (x1 - x0) * s / STEPS;
+                mYs[(i - 1) * STEPS + s] = y0 + (y1 - y0) * s / STEPS;
+            }
+        }
+    }
+
+    @Benchmark
+    public int gesture() {
+        GestureEngine engine = mEngine;
+        engine.onTouchDown(mXs[0], mYs[0]);
+        for (int i = 0; i < mXs.length; i++) {
+            engine.onTouchMove(mXs[i], mYs[i]);
+        }
+        int selected = engine.getSelection().size();
+        engine.reset();
+        return selected;
+    }
+}
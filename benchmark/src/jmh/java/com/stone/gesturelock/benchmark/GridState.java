@@ -0,0 +1,103 @@
+package com.stone.gesturelock.benchmark;
+
+import com.stone.gesturelock.core.GridHitTester;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternSelection;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *  各个 benchmark 共用的网格：与 GestureLockViewGroup 相同的几何参数（1080px 宽的面板），
+ *  预先生成的随机触点、线段和一个随机图案，测量时不再分配对象。
+ */
+
+@State(Scope.Thread)
+public class GridState {
+
+    /**
+     * 面板的边长
+     */
+    static final int WIDTH = 1080;
+    /**
+     * 预先生成的触点个数，必须是2的幂
+     */
+    static final int SAMPLES = 1024;
+    static final int MASK = SAMPLES - 1;
+
+    @Param({"3", "4", "5", "6", "7", "8", "9", "10", "11", "12"})
+    public int count;
+
+    int cellSize;
+    int margin;
+    int hitPadding;
+
+    final GridHitTester hitTester = new GridHitTester();
+    final int[] xs = new int[SAMPLES];
+    final int[] ys = new int[SAMPLES];
+    int[] segmentCells;
+
+    /**
+     * 随机的答案和与之相同的选中状态
+     */
+    Pattern answer;
+    final PatternSelection selection = new PatternSelection();
+    int[] answerIds;
+
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cellSize = (int) (4 * WIDTH * 1.0f / (5 * count + 1));
+        margin = (int) (cellSize * 0.25);
+        hitPadding = (int) (cellSize * 0.15);
+        hitTester.setGeometry(count, cellSize, margin, 0, 0);
+        hitTester.setHitArea(cellSize - 2 * hitPadding, false);
+        segmentCells = new int[count * count];
+
+        Random random = new Random(count);
+        for (int i = 0; i < SAMPLES; i++) {
+            xs[i] = random.nextInt(WIDTH);
+            ys[i] = random.nextInt(WIDTH);
+        }
+
+        // 随机选一半的格子作为答案
+        int cellCount = count * count;
+        int[] ids = new int[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            ids[i] = i + 1;
+        }
+        for (int i = cellCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        answerIds = new int[Math.max(4, cellCount / 2)];
+        System.arraycopy(ids, 0, answerIds, 0, answerIds.length);
+        answer = Pattern.of(count, answerIds);
+        selection.setCellCount(cellCount);
+        for (int id : answerIds) {
+            selection.add(id);
+        }
+    }
+
+    /**
+     * 下一个预先生成的触点的下标
+     */
+    int next() {
+        mNext = (mNext + 1) & MASK;
+        return mNext;
+    }
+
+    int cellCenterX(int index) {
+        return hitTester.getCellLeft(index) + cellSize / 2;
+    }
+
+    int cellCenterY(int index) {
+        return hitTester.getCellTop(index) + cellSize / 2;
+    }
+}
@@ -0,0 +1,38 @@
+package com.stone.gesturelock.benchmark;
+
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternHash;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *  解锁时的答案比较（checkUnlockAnswer）：PBKDF2 本来就很慢，在后台线程执行，
+ *  这里只用来发现迭代次数或实现的变化，与网格大小无关，只测一个 3*3 的图案。
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HashBenchmark {
+
+    private Pattern mCandidate;
+    private PatternHash mHash;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCandidate = Pattern.of(3, 1, 2, 3, 5, 7);
+        mHash = PatternHash.create(mCandidate);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return mHash.matches(mCandidate);
+    }
+}
@@ -0,0 +1,52 @@
+package com.stone.gesturelock.benchmark;
+
+import com.stone.gesturelock.core.GridHitTester;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ *  一个触点找到所在格子的开销：GridHitTester 直接计算候选格子，
+ *  linearScan 是原来 getChildIdByPos / checkPositionInChild 逐个格子判断的做法，作为对照。
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HitTestBenchmark {
+
+    @Benchmark
+    public int hitTest(GridState state) {
+        int i = state.next();
+        return state.hitTester.hitTest(state.xs[i], state.ys[i]);
+    }
+
+    @Benchmark
+    public int linearScan(GridState state) {
+        int i = state.next();
+        int x = state.xs[i];
+        int y = state.ys[i];
+        int padding = state.hitPadding;
+        for (int index = 0; index < state.count * state.count; index++) {
+            int left = state.hitTester.getCellLeft(index);
+            int top = state.hitTester.getCellTop(index);
+            if (x >= left + padding && x <= left + state.cellSize - padding
+                    && y >= top + padding && y <= top + state.cellSize - padding) {
+                return index;
+            }
+        }
+        return GridHitTester.NO_CELL;
+    }
+
+    /**
+     * 快速滑动时两个相邻触点之间的线段经过的格子
+     */
+    @Benchmark
+    public int cellsOnSegment(GridState state) {
+        int i = state.next();
+        int j = (i + 1) & GridState.MASK;
+        return state.hitTester.cellsOnSegment(state.xs[i], state.ys[i], state.xs[j], state.ys[j],
+                state.segmentCells);
+    }
+}
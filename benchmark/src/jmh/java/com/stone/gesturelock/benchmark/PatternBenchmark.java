@@ -0,0 +1,64 @@
+package com.stone.gesturelock.benchmark;
+
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternSelection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ *  手势过程中和手指抬起时对选中状态的操作：成员判断、答案比较（checkLockAnswer）、
+ *  生成回调用的 Pattern，以及 ACTION_UP 中计算箭头角度。
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatternBenchmark {
+
+    @Benchmark
+    public boolean contains(GridState state) {
+        return state.selection.contains(state.next() % (state.count * state.count) + 1);
+    }
+
+    /**
+     * 一次完整的选择：依次加入答案的所有格子再清空
+     */
+    @Benchmark
+    public int select(GridState state) {
+        PatternSelection selection = state.selection;
+        selection.clear();
+        for (int id : state.answerIds) {
+            selection.add(id);
+        }
+        return selection.size();
+    }
+
+    /**
+     * 设置手势第二次确认时的比较
+     */
+    @Benchmark
+    public boolean matches(GridState state) {
+        return state.answer.matches(state.selection);
+    }
+
+    /**
+     * 手指抬起时复制选中状态
+     */
+    @Benchmark
+    public Pattern snapshot(GridState state) {
+        return Pattern.of(state.count, state.selection);
+    }
+
+    @Benchmark
+    public int arrowDegrees(GridState state) {
+        PatternSelection selection = state.selection;
+        int sum = 0;
+        for (int i = 0; i + 1 < selection.size(); i++) {
+            sum += GestureEngine.arrowDegree(state.count, selection.get(i) - 1, selection.get(i + 1) - 1);
+        }
+        return sum;
+    }
+}
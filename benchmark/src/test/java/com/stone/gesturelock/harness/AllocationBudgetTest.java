@@ -0,0 +1,19 @@
+package com.stone.gesturelock.harness;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  在 gradle check 中用默认参数运行 AllocationBudgetHarness，触摸热点路径的分配超出预算时测试失败，
+ *  每个场景的测量结果打印在测试的标准输出中
+ */
+
+public class AllocationBudgetTest {
+
+    @Test
+    public void touchPathsStayWithinAllocationBudget() throws Exception {
+        assertTrue("touch path allocation over budget, see the test output",
+                new AllocationBudgetHarness().run());
+    }
+}
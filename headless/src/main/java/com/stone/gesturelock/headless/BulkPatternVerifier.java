@@ -0,0 +1,208 @@
+package com.stone.gesturelock.headless;
+
+import com.stone.gesturelock.core.GridTopology;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.PatternVerifier;
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  在 ForkJoinPool 中批量检查、规范化和比较 PatternBatch 中的图案：把下标范围对半拆分，直到每块不超过
+ *  固定的大小后在当前线程中处理，吞吐量随核数增加。检查和规范化每块几千个图案，比较时 PBKDF2 很慢，每块一个。
+ *
+ *  结果按图案的序号返回，所有方法都会阻塞到整批处理完成，可以在多个线程中同时调用。
+ */
+
+public final class BulkPatternVerifier implements Closeable {
+
+    /**
+     * 检查和规范化时每块的图案个数
+     */
+    private static final int VALIDATE_CHUNK = 4096;
+    /**
+     * 比较时每块的图案个数
+     */
+    private static final int VERIFY_CHUNK = 1;
+
+    private final ForkJoinPool mPool;
+    /**
+     * 是否由自己创建，close 时关闭
+     */
+    private final boolean isOwnPool;
+
+    /**
+     * 使用与 CPU 核数相同的并行度
+     */
+    public BulkPatternVerifier() {
+        this(new ForkJoinPool(), true);
+    }
+
+    /**
+     * @param pool 使用者管理的线程池，close 时不关闭
+     */
+    public BulkPatternVerifier(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    private BulkPatternVerifier(ForkJoinPool pool, boolean ownPool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool is null");
+        }
+        this.mPool = pool;
+        this.isOwnPool = ownPool;
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    /**
+     * 检查每个图案是否符合规则
+     *
+     * @param minLength 最少的节点个数
+     * @return 每个图案的 PatternCodec.VALID 或者 PatternCodec.ERROR_*
+     */
+    public int[] validate(final PatternBatch batch, final int minLength) {
+        final int[] results = new int[batch.size()];
+        final GridTopology topology = GridTopology.of(batch.getCount());
+        mPool.invoke(new ChunkAction(0, batch.size(), VALIDATE_CHUNK, new Processor() {
+            @Override
+            public void process(int from, int to) {
+                int[] ids = batch.ids();
+                long[] visited = new long[PatternCodec.visitedWords(topology)];
+                for (int i = from; i < to; i++) {
+                    int offset = batch.offset(i);
+                    results[i] = PatternCodec.validate(topology, ids, offset, batch.offset(i + 1) - offset,
+                            minLength, visited);
+                }
+            }
+        }));
+        return results;
+    }
+
+    /**
+     * 按 PatternCodec.normalize 补上每个图案的连线经过的格子
+     *
+     * @return 顺序相同的新的一批图案
+     * @throws IllegalArgumentException 有图案的格子id越界
+     */
+    public PatternBatch normalize(final PatternBatch batch) {
+        final int count = batch.getCount();
+        final int[][] normalized = new int[batch.size()][];
+        mPool.invoke(new ChunkAction(0, batch.size(), VALIDATE_CHUNK, new Processor() {
+            @Override
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    normalized[i] = PatternCodec.normalize(count, batch.toIntArray(i));
+                }
+            }
+        }));
+        PatternBatch out = new PatternBatch(count, normalized.length);
+        for (int[] ids : normalized) {
+            out.add(ids);
+        }
+        return out;
+    }
+
+    /**
+     * 把第 i 个候选图案与第 i 个摘要比较，例如迁移时确认旧答案与新的摘要一致
+     *
+     * @param hashes 与 candidates 一样多，为null的视为不匹配
+     * @return 每个图案的 PatternVerifier.RESULT_MATCHED / RESULT_MISMATCH，图案不合法时为 RESULT_ERROR
+     */
+    public int[] verify(final PatternBatch candidates, final PatternHash[] hashes) {
+        if (hashes.length != candidates.size()) {
+            throw new IllegalArgumentException(hashes.length + " hashes for " + candidates.size() + " candidates");
+        }
+        final int[] results = new int[candidates.size()];
+        mPool.invoke(new ChunkAction(0, candidates.size(), VERIFY_CHUNK, new Processor() {
+            @Override
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    results[i] = verify(candidates, i, hashes[i]);
+                }
+            }
+        }));
+        return results;
+    }
+
+    /**
+     * 把每个候选图案与同一个摘要比较
+     *
+     * @return 同 verify(PatternBatch, PatternHash[])
+     */
+    public int[] verify(final PatternBatch candidates, final PatternHash hash) {
+        final int[] results = new int[candidates.size()];
+        mPool.invoke(new ChunkAction(0, candidates.size(), VERIFY_CHUNK, new Processor() {
+            @Override
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    results[i] = verify(candidates, i, hash);
+                }
+            }
+        }));
+        return results;
+    }
+
+    private static int verify(PatternBatch candidates, int index, PatternHash hash) {
+        Pattern candidate;
+        try {
+            candidate = candidates.toPattern(index);
+        } catch (IllegalArgumentException e) {
+            return PatternVerifier.RESULT_ERROR;
+        }
+        return hash != null && hash.matches(candidate)
+                ? PatternVerifier.RESULT_MATCHED : PatternVerifier.RESULT_MISMATCH;
+    }
+
+    /**
+     * 关闭自己创建的线程池
+     */
+    @Override
+    public void close() {
+        if (isOwnPool) {
+            mPool.shutdown();
+        }
+    }
+
+    /**
+     * 处理一段连续的图案，可能在多个线程中同时调用（范围不重叠）
+     */
+    private interface Processor {
+
+        void process(int from, int to);
+    }
+
+    /**
+     * 处理 [from, to)，大于 chunk 时对半拆分，拆分出来的部分使用同一个 Processor
+     */
+    private static final class ChunkAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mFrom;
+        private final int mTo;
+        private final int mChunk;
+        private final transient Processor mProcessor;
+
+        ChunkAction(int from, int to, int chunk, Processor processor) {
+            this.mFrom = from;
+            this.mTo = to;
+            this.mChunk = chunk;
+            this.mProcessor = processor;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mChunk) {
+                mProcessor.process(mFrom, mTo);
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new ChunkAction(mFrom, middle, mChunk, mProcessor),
+                    new ChunkAction(middle, mTo, mChunk, mProcessor));
+        }
+    }
+}
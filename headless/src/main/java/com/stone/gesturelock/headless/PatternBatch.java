@@ -0,0 +1,189 @@
+package com.stone.gesturelock.headless;
+
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternSelection;
+import java.util.Arrays;
+
+/**
+ *  一批同样大小的网格上的图案，所有格子id顺序放在一个 int[] 中，第 i 个图案的范围为 [offset(i), offset(i + 1))，
+ *  不为每个图案创建对象，适合一次处理几百万个保存的图案。
+ *
+ *  添加时不检查格子id（不合法的数据也原样保存，由 PatternCodec.validate 或 BulkPatternVerifier.validate 检查），
+ *  旧格式中为null的元素保存为0。添加完成后可以在多个线程中同时读取。
+ */
+
+public final class PatternBatch {
+
+    private final int mCount;
+    private int[] mIds;
+    private int mIdCount;
+    /**
+     * 第 i 个图案的起点，mOffsets[mSize] 为 mIdCount
+     */
+    private int[] mOffsets;
+    private int mSize;
+
+    /**
+     * @param count 每个边上的格子个数
+     */
+    public PatternBatch(int count) {
+        this(count, 16);
+    }
+
+    /**
+     * @param capacity 预计的图案个数
+     */
+    public PatternBatch(int count, int capacity) {
+        if (count < 1 || count * count > PatternSelection.MAX_ID) {
+            throw new IllegalArgumentException("invalid count: " + count);
+        }
+        this.mCount = count;
+        this.mIds = new int[Math.max(16, capacity * 4)];
+        this.mOffsets = new int[Math.max(1, capacity) + 1];
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 图案个数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return 图案的序号
+     */
+    public int add(int[] ids) {
+        return add(ids, 0, ids.length);
+    }
+
+    public int add(int[] ids, int offset, int length) {
+        ensureIds(length);
+        System.arraycopy(ids, offset, mIds, mIdCount, length);
+        return append(length);
+    }
+
+    /**
+     * 添加 setAnswer(Integer[]) 格式的旧答案
+     */
+    public int addLegacy(Integer[] ids) {
+        ensureIds(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            mIds[mIdCount + i] = ids[i] != null ? ids[i] : 0;
+        }
+        return append(ids.length);
+    }
+
+    /**
+     * 添加 PatternCodec.encode 的紧凑编码
+     *
+     * @throws IllegalArgumentException 编码不完整或者网格大小不同
+     */
+    public int addEncoded(byte[] data) {
+        int count = PatternCodec.decodeCount(data);
+        if (count != mCount) {
+            throw new IllegalArgumentException("encoded count " + count + ", expected " + mCount);
+        }
+        return add(PatternCodec.decode(data));
+    }
+
+    public int add(Pattern pattern) {
+        if (pattern.getCount() != mCount) {
+            throw new IllegalArgumentException("pattern count " + pattern.getCount() + ", expected " + mCount);
+        }
+        int length = pattern.size();
+        ensureIds(length);
+        for (int i = 0; i < length; i++) {
+            mIds[mIdCount + i] = pattern.get(i);
+        }
+        return append(length);
+    }
+
+    private void ensureIds(int length) {
+        if (mIdCount + length > mIds.length) {
+            mIds = Arrays.copyOf(mIds, Math.max(mIdCount + length, mIds.length * 2));
+        }
+    }
+
+    private int append(int length) {
+        if (mSize + 2 > mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mOffsets.length * 2);
+        }
+        mIdCount += length;
+        mOffsets[++mSize] = mIdCount;
+        return mSize - 1;
+    }
+
+    /**
+     * 第 index 个图案的格子个数
+     */
+    public int length(int index) {
+        checkIndex(index);
+        return mOffsets[index + 1] - mOffsets[index];
+    }
+
+    /**
+     * 第 index 个图案的第 position 个格子id
+     */
+    public int get(int index, int position) {
+        if (position < 0 || position >= length(index)) {
+            throw new IndexOutOfBoundsException("position: " + position + ", length: " + length(index));
+        }
+        return mIds[mOffsets[index] + position];
+    }
+
+    /**
+     * 复制第 index 个图案的格子id
+     */
+    public int[] toIntArray(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(mIds, mOffsets[index], mOffsets[index + 1]);
+    }
+
+    /**
+     * @throws IllegalArgumentException 图案不合法（越界或者重复）
+     */
+    public Pattern toPattern(int index) {
+        return Pattern.of(mCount, toIntArray(index));
+    }
+
+    /**
+     * 转换为 setAnswer(Integer[]) 的格式
+     */
+    public Integer[] toLegacy(int index) {
+        int[] ids = toIntArray(index);
+        Integer[] legacy = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            legacy[i] = ids[i];
+        }
+        return legacy;
+    }
+
+    /**
+     * @throws IllegalArgumentException 图案不合法（越界或者重复）
+     */
+    public byte[] encode(int index) {
+        checkIndex(index);
+        return PatternCodec.encode(mCount, mIds, mOffsets[index], length(index));
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+    }
+
+    /**
+     * 所有格子id，只读，BulkPatternVerifier 直接访问
+     */
+    int[] ids() {
+        return mIds;
+    }
+
+    int offset(int index) {
+        return mOffsets[index];
+    }
+}
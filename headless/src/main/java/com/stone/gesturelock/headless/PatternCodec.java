@@ -0,0 +1,262 @@
+package com.stone.gesturelock.headless;
+
+import com.stone.gesturelock.core.GridTopology;
+import com.stone.gesturelock.core.Pattern;
+
+/**
+ *  不依赖 Android 的图案规则和编码，用于服务端和迁移工具。
+ *
+ *  规则与 GestureLockViewGroup 相同：格子id从1开始不越界、不重复；与 Android 系统图案锁相同的跳格规则，
+ *  相邻两个节点的连线经过的格子（GridTopology）必须已经在前面出现过。
+ *
+ *  紧凑编码：count(1) length(1)，之后每个节点按 (id - 1) 占 Pattern.bitsPerNode(count * count) 位，
+ *  从低位开始依次排列，最后一个字节不足的位为0。3*3 的9个节点只需要7个字节。
+ */
+
+public final class PatternCodec {
+
+    public static final int VALID = 0;
+    /**
+     * 节点个数少于要求的最小值
+     */
+    public static final int ERROR_TOO_SHORT = 1;
+    /**
+     * 格子id不在 [1, count * count] 中
+     */
+    public static final int ERROR_OUT_OF_RANGE = 2;
+    public static final int ERROR_DUPLICATE = 3;
+    /**
+     * 连线经过了一个还没有选中的格子，例如3*3中第一次从1连到3
+     */
+    public static final int ERROR_SKIPPED_CELL = 4;
+
+    private static final int HEADER_LENGTH = 2;
+
+    private PatternCodec() {
+    }
+
+    /**
+     * @param count     每个边上的格子个数
+     * @param minLength 最少的节点个数
+     * @return VALID 或者 ERROR_*
+     */
+    public static int validate(int count, int[] ids, int minLength) {
+        GridTopology topology = GridTopology.of(count);
+        return validate(topology, ids, 0, ids.length, minLength, new long[visitedWords(topology)]);
+    }
+
+    /**
+     * 检查 ids 中 [offset, offset + length) 的图案
+     *
+     * @param visited 临时使用，长度不小于 visitedWords(topology)，批量检查时复用
+     */
+    static int validate(GridTopology topology, int[] ids, int offset, int length, int minLength, long[] visited) {
+        if (length < minLength) {
+            return ERROR_TOO_SHORT;
+        }
+        int cellCount = topology.getCellCount();
+        for (int i = 0; i < length; i++) {
+            int id = ids[offset + i];
+            if (id < 1 || id > cellCount) {
+                return ERROR_OUT_OF_RANGE;
+            }
+        }
+        int words = visitedWords(topology);
+        for (int i = 0; i < words; i++) {
+            visited[i] = 0;
+        }
+        for (int i = 0; i < length; i++) {
+            int id = ids[offset + i];
+            if ((visited[id >> 6] & (1L << id)) != 0) {
+                return ERROR_DUPLICATE;
+            }
+            if (i > 0) {
+                int from = ids[offset + i - 1] - 1;
+                int between = topology.betweenCount(from, id - 1);
+                for (int b = 0; b < between; b++) {
+                    int skipped = topology.between(from, id - 1, b) + 1;
+                    if ((visited[skipped >> 6] & (1L << skipped)) == 0) {
+                        return ERROR_SKIPPED_CELL;
+                    }
+                }
+            }
+            visited[id >> 6] |= 1L << id;
+        }
+        return VALID;
+    }
+
+    static int visitedWords(GridTopology topology) {
+        return (topology.getCellCount() >> 6) + 1;
+    }
+
+    /**
+     * 按系统图案锁的规则补上连线经过的未选中格子，已经选中过的格子忽略，
+     * 结果与 GestureEngine.setSelectBetween(true) 时按同样的顺序经过这些格子相同
+     *
+     * @throws IllegalArgumentException 格子id越界
+     */
+    public static int[] normalize(int count, int[] ids) {
+        GridTopology topology = GridTopology.of(count);
+        int cellCount = topology.getCellCount();
+        boolean[] visited = new boolean[cellCount + 1];
+        int[] out = new int[cellCount];
+        int length = 0;
+        for (int id : ids) {
+            if (id < 1 || id > cellCount) {
+                throw new IllegalArgumentException("invalid id " + id + " for count " + count);
+            }
+            if (visited[id]) {
+                continue;
+            }
+            if (length > 0) {
+                int from = out[length - 1] - 1;
+                int between = topology.betweenCount(from, id - 1);
+                for (int b = 0; b < between; b++) {
+                    int skipped = topology.between(from, id - 1, b) + 1;
+                    if (!visited[skipped]) {
+                        visited[skipped] = true;
+                        out[length++] = skipped;
+                    }
+                }
+            }
+            visited[id] = true;
+            out[length++] = id;
+        }
+        int[] result = new int[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * 旧格式 Integer[] 转换为 int[]
+     *
+     * @throws IllegalArgumentException 包含null
+     */
+    public static int[] fromLegacy(Integer[] ids) {
+        int[] values = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null) {
+                throw new IllegalArgumentException("null id at " + i);
+            }
+            values[i] = ids[i];
+        }
+        return values;
+    }
+
+    /**
+     * 转换为 setAnswer(Integer[]) 的格式
+     */
+    public static Integer[] toLegacy(int[] ids) {
+        Integer[] values = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            values[i] = ids[i];
+        }
+        return values;
+    }
+
+    /**
+     * 编码后的字节数
+     */
+    public static int encodedLength(int count, int length) {
+        return HEADER_LENGTH + (length * Pattern.bitsPerNode(count * count) + 7) / 8;
+    }
+
+    /**
+     * @throws IllegalArgumentException 格子id越界或者重复
+     */
+    public static byte[] encode(int count, int[] ids) {
+        return encode(count, ids, 0, ids.length);
+    }
+
+    /**
+     * @throws IllegalArgumentException 格子id越界、重复或者为null
+     */
+    public static byte[] encode(int count, Integer[] legacy) {
+        return encode(count, fromLegacy(legacy));
+    }
+
+    public static byte[] encode(Pattern pattern) {
+        return encode(pattern.getCount(), pattern.toIntArray());
+    }
+
+    static byte[] encode(int count, int[] ids, int offset, int length) {
+        GridTopology topology = GridTopology.of(count);
+        int cellCount = topology.getCellCount();
+        long[] visited = new long[visitedWords(topology)];
+        int bits = Pattern.bitsPerNode(cellCount);
+        byte[] data = new byte[encodedLength(count, length)];
+        data[0] = (byte) count;
+        data[1] = (byte) length;
+        int bit = HEADER_LENGTH * 8;
+        for (int i = 0; i < length; i++) {
+            int id = ids[offset + i];
+            if (id < 1 || id > cellCount) {
+                throw new IllegalArgumentException("invalid id " + id + " for count " + count);
+            }
+            if ((visited[id >> 6] & (1L << id)) != 0) {
+                throw new IllegalArgumentException("duplicate id " + id);
+            }
+            visited[id >> 6] |= 1L << id;
+            int value = id - 1;
+            for (int b = 0; b < bits; b++, bit++) {
+                if ((value & (1 << b)) != 0) {
+                    data[bit >> 3] |= (byte) (1 << (bit & 7));
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 编码中的网格大小
+     *
+     * @throws IllegalArgumentException 编码不完整
+     */
+    public static int decodeCount(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("truncated pattern");
+        }
+        return data[0] & 0xFF;
+    }
+
+    /**
+     * @return 格子id
+     * @throws IllegalArgumentException 编码不完整或者格子id越界
+     */
+    public static int[] decode(byte[] data) {
+        int count = decodeCount(data);
+        int length = data[1] & 0xFF;
+        GridTopology topology = GridTopology.of(count);
+        if (data.length != encodedLength(count, length)) {
+            throw new IllegalArgumentException("invalid pattern length: " + data.length);
+        }
+        int cellCount = topology.getCellCount();
+        int bits = Pattern.bitsPerNode(cellCount);
+        int[] ids = new int[length];
+        int bit = HEADER_LENGTH * 8;
+        for (int i = 0; i < length; i++) {
+            int value = 0;
+            for (int b = 0; b < bits; b++, bit++) {
+                if ((data[bit >> 3] & (1 << (bit & 7))) != 0) {
+                    value |= 1 << b;
+                }
+            }
+            if (value >= cellCount) {
+                throw new IllegalArgumentException("invalid id " + (value + 1) + " for count " + count);
+            }
+            ids[i] = value + 1;
+        }
+        return ids;
+    }
+
+    public static Integer[] decodeLegacy(byte[] data) {
+        return toLegacy(decode(data));
+    }
+
+    /**
+     * @throws IllegalArgumentException 编码不完整或者图案不合法
+     */
+    public static Pattern decodePattern(byte[] data) {
+        return Pattern.of(decodeCount(data), decode(data));
+    }
+}
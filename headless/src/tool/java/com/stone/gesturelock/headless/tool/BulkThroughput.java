@@ -0,0 +1,222 @@
+package com.stone.gesturelock.headless.tool;
+
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.PatternVerifier;
+import com.stone.gesturelock.headless.BulkPatternVerifier;
+import com.stone.gesturelock.headless.PatternBatch;
+import com.stone.gesturelock.headless.PatternCodec;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *  测量 BulkPatternVerifier 在不同并行度下的吞吐量：
+ *
+ *  生成 --patterns 个随机图案，大约四分之三按 PatternCodec.normalize 补上经过的格子（合法），其余保持原样
+ *  （大多数跳过了格子）；先解码一遍编码检查往返一致，然后对每个 --threads 中的并行度分别计时检查整批图案
+ *  和用 --iterations 次 PBKDF2 比较前 --verify 个图案，打印每秒处理的图案数和相对于单线程的加速比。
+ *  不同并行度的结果必须相同，第0个图案必须与摘要匹配，否则以状态码 1 退出。
+ *
+ *  用法：BulkThroughput [--count 3] [--patterns 1000000] [--verify 2000] [--iterations 1000] [--threads 1,2,4]
+ *                      [--seed N]
+ */
+
+public final class BulkThroughput {
+
+    /**
+     * 检查时每个并行度重复的次数，取最快的一次
+     */
+    private static final int VALIDATE_ROUNDS = 5;
+    private static final int WARMUP_VERIFY = 20;
+
+    private int mCount = 3;
+    private int mPatterns = 1000000;
+    private int mVerify = 2000;
+    private int mIterations = 1000;
+    private int[] mThreads;
+    private long mSeed = System.nanoTime();
+
+    public static void main(String[] args) throws Exception {
+        BulkThroughput throughput = new BulkThroughput();
+        if (!throughput.parse(args)) {
+            System.err.println("usage: BulkThroughput [--count 3] [--patterns N] [--verify N] [--iterations N]"
+                    + " [--threads 1,2,4] [--seed N]");
+            System.exit(2);
+        }
+        System.exit(throughput.run() ? 0 : 1);
+    }
+
+    private boolean parse(String[] args) {
+        if (args.length % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            if (arg.equals("--count")) {
+                mCount = Integer.parseInt(value);
+            } else if (arg.equals("--patterns")) {
+                mPatterns = Integer.parseInt(value);
+            } else if (arg.equals("--verify")) {
+                mVerify = Integer.parseInt(value);
+            } else if (arg.equals("--iterations")) {
+                mIterations = Integer.parseInt(value);
+            } else if (arg.equals("--threads")) {
+                String[] values = value.split(",");
+                mThreads = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    mThreads[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if (arg.equals("--seed")) {
+                mSeed = Long.parseLong(value);
+            } else {
+                return false;
+            }
+        }
+        if (mThreads == null) {
+            mThreads = defaultThreads();
+        }
+        return mCount >= 2 && mPatterns > 0 && mVerify > 0 && mIterations > 0;
+    }
+
+    /**
+     * 1, 2, 4 ... 直到 CPU 核数
+     */
+    private static int[] defaultThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threads = new int[32];
+        int size = 0;
+        for (int n = 1; n < cores; n <<= 1) {
+            threads[size++] = n;
+        }
+        threads[size++] = cores;
+        return Arrays.copyOf(threads, size);
+    }
+
+    private boolean run() {
+        System.out.println("seed " + mSeed + ", count " + mCount + ", " + mPatterns + " patterns, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+        PatternBatch batch = generate(new Random(mSeed));
+        if (!checkRoundTrip(batch)) {
+            return false;
+        }
+        PatternBatch candidates = new PatternBatch(mCount, Math.min(mVerify, batch.size()));
+        for (int i = 0; i < mVerify && i < batch.size(); i++) {
+            candidates.add(batch.toIntArray(i));
+        }
+        PatternBatch warmup = new PatternBatch(mCount, WARMUP_VERIFY);
+        for (int i = 0; i < WARMUP_VERIFY; i++) {
+            warmup.add(candidates.toIntArray(i % candidates.size()));
+        }
+        PatternHash hash = PatternHash.create(batch.toPattern(0), mIterations);
+
+        int[] expectedValid = null;
+        int[] expectedVerify = null;
+        double baseValidate = 0;
+        double baseVerify = 0;
+        for (int threads : mThreads) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            BulkPatternVerifier verifier = new BulkPatternVerifier(pool);
+            try {
+                int[] valid = null;
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < VALIDATE_ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    valid = verifier.validate(batch, 4);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                // 预热 PBKDF2，避免第一个并行度的计时包括 JIT 编译
+                verifier.verify(warmup, hash);
+                long start = System.nanoTime();
+                int[] verify = verifier.verify(candidates, hash);
+                long verifyNanos = System.nanoTime() - start;
+
+                if (expectedValid == null) {
+                    expectedValid = valid;
+                    expectedVerify = verify;
+                    printSummary(valid, verify);
+                } else if (!Arrays.equals(expectedValid, valid) || !Arrays.equals(expectedVerify, verify)) {
+                    System.out.println("results differ with " + threads + " threads");
+                    return false;
+                }
+                double validateRate = batch.size() * 1e9 / best;
+                double verifyRate = candidates.size() * 1e9 / verifyNanos;
+                if (baseValidate == 0) {
+                    baseValidate = validateRate;
+                    baseVerify = verifyRate;
+                }
+                System.out.println(String.format("threads %2d  validate %10.0f patterns/s (%4.1fx)"
+                                + "  verify %8.0f patterns/s (%4.1fx)", threads, validateRate,
+                        validateRate / baseValidate, verifyRate, verifyRate / baseVerify));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (expectedVerify[0] != PatternVerifier.RESULT_MATCHED) {
+            System.out.println("pattern 0 does not match its own hash");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 随机的不重复格子，长度 4 到格子总数
+     */
+    private PatternBatch generate(Random random) {
+        int cellCount = mCount * mCount;
+        int[] cells = new int[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            cells[i] = i + 1;
+        }
+        PatternBatch batch = new PatternBatch(mCount, mPatterns);
+        for (int i = 0; i < mPatterns; i++) {
+            int length = 4 + random.nextInt(cellCount - 3);
+            for (int j = 0; j < length; j++) {
+                int k = j + random.nextInt(cellCount - j);
+                int swap = cells[j];
+                cells[j] = cells[k];
+                cells[k] = swap;
+            }
+            int[] ids = Arrays.copyOf(cells, length);
+            // 第0个图案用于比较，必须合法
+            if (i == 0 || random.nextInt(4) != 0) {
+                ids = PatternCodec.normalize(mCount, ids);
+            }
+            batch.add(ids);
+        }
+        return batch;
+    }
+
+    private static boolean checkRoundTrip(PatternBatch batch) {
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] data = batch.encode(i);
+            bytes += data.length;
+            if (!Arrays.equals(PatternCodec.decode(data), batch.toIntArray(i))) {
+                System.out.println("round trip failed for pattern " + i);
+                return false;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("encode + decode %.0f patterns/s, %.2f bytes/pattern",
+                batch.size() * 1e9 / nanos, (double) bytes / batch.size()));
+        return true;
+    }
+
+    private static void printSummary(int[] valid, int[] verify) {
+        int[] codes = new int[PatternCodec.ERROR_SKIPPED_CELL + 1];
+        for (int code : valid) {
+            codes[code]++;
+        }
+        int matched = 0;
+        for (int result : verify) {
+            if (result == PatternVerifier.RESULT_MATCHED) {
+                matched++;
+            }
+        }
+        System.out.println("valid " + codes[PatternCodec.VALID] + ", too short " + codes[PatternCodec.ERROR_TOO_SHORT]
+                + ", skipped cell " + codes[PatternCodec.ERROR_SKIPPED_CELL] + ", matched " + matched + "/"
+                + verify.length);
+    }
+}
@@ -0,0 +1,165 @@
+package com.stone.gesturelock;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ *  格子的预渲染缓存。
+ *
+ *  每种状态、以及每种"状态 + 箭头角度"的组合只用 GestureCellRenderer 绘制一次，保存在同一张
+ *  Bitmap 的不同槽位中，之后所有格子都直接从这张图上拷贝，不再重复绘制抗锯齿的圆、设置画笔和旋转画布。
+ *
+ *  由 GestureCellRenderer 按（边长，颜色）创建并共享，边长或颜色变化后使用对应的另一个实例，
+ *  没有 GestureLockViewGroup 使用时回收；
+ *  槽位个数受 MAX_BYTES 限制，槽位用完后 draw 返回 false，由调用者直接绘制。
+ */
+
+class CellSpriteAtlas {
+
+    /**
+     * 图集占用内存的上限
+     */
+    static final int MAX_BYTES = 2 * 1024 * 1024;
+    /**
+     * 最多缓存的箭头图案个数
+     */
+    private static final int MAX_ARROW_SPRITES = 32;
+    /**
+     * 图集的最大宽度
+     */
+    private static final int MAX_WIDTH = 2048;
+
+    private static final int STATUS_COUNT = 4;
+
+    private final GestureCellRenderer mRenderer;
+    private final int mSize;
+    private final Bitmap mBitmap;
+    private final Canvas mAtlasCanvas;
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final int mColumns;
+    private final int mSlotCount;
+    private int mUsedSlots;
+
+    /**
+     * 每种状态（不带箭头）所在的槽位，-1 表示还未绘制
+     */
+    private final int[] mStatusSlots = new int[STATUS_COUNT];
+    /**
+     * 失败/成功状态下每个箭头角度所在的槽位 + 1，0 表示还未绘制
+     */
+    private final int[] mArrowSlots = new int[2 * 360];
+
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    /**
+     * 创建图集，内存上限内连所有状态都放不下时返回null
+     *
+     * @param renderer 用于绘制各个槽位
+     */
+    static CellSpriteAtlas create(GestureCellRenderer renderer) {
+        int size = renderer.getSize();
+        if (size <= 0) {
+            return null;
+        }
+        long slotBytes = 4L * size * size;
+        int slots = (int) Math.min(STATUS_COUNT + MAX_ARROW_SPRITES, MAX_BYTES / slotBytes);
+        if (slots < STATUS_COUNT) {
+            return null;
+        }
+        return new CellSpriteAtlas(renderer, slots);
+    }
+
+    private CellSpriteAtlas(GestureCellRenderer renderer, int slotCount) {
+        mRenderer = renderer;
+        mSize = renderer.getSize();
+        mSlotCount = slotCount;
+        mColumns = Math.max(1, Math.min(slotCount, MAX_WIDTH / mSize));
+        int rows = (slotCount + mColumns - 1) / mColumns;
+        mBitmap = Bitmap.createBitmap(mColumns * mSize, rows * mSize, Bitmap.Config.ARGB_8888);
+        mAtlasCanvas = new Canvas(mBitmap);
+        for (int i = 0; i < STATUS_COUNT; i++) {
+            mStatusSlots[i] = -1;
+        }
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 回收图集的 Bitmap，之后不能再使用
+     */
+    void recycle() {
+        mBitmap.recycle();
+    }
+
+    /**
+     * 将格子拷贝到 (left, top) 处
+     *
+     * @return 没有可用的槽位时返回false，需要调用者自己绘制
+     */
+    boolean draw(Canvas canvas, int left, int top, @GestureLockView.GestureStatus int status, int arrowDegree) {
+        int slot = slotFor(status, arrowDegree);
+        if (slot < 0) {
+            return false;
+        }
+        int slotLeft = (slot % mColumns) * mSize;
+        int slotTop = (slot / mColumns) * mSize;
+        mSrc.set(slotLeft, slotTop, slotLeft + mSize, slotTop + mSize);
+        mDst.set(left, top, left + mSize, top + mSize);
+        canvas.drawBitmap(mBitmap, mSrc, mDst, mBitmapPaint);
+        return true;
+    }
+
+    /**
+     * 查找（必要时绘制）状态对应的槽位
+     */
+    private int slotFor(int status, int arrowDegree) {
+        if (status < 0 || status >= STATUS_COUNT) {
+            return -1;
+        }
+        boolean hasArrow = arrowDegree != -1 && (status == GestureLockView.STATUS_FINGER_UP_FAILED
+                || status == GestureLockView.STATUS_FINGER_UP_DONE);
+        if (!hasArrow) {
+            if (mStatusSlots[status] < 0) {
+                int slot = render(status, -1);
+                if (slot < 0) {
+                    return -1;
+                }
+                mStatusSlots[status] = slot;
+            }
+            return mStatusSlots[status];
+        }
+
+        int degree = ((arrowDegree % 360) + 360) % 360;
+        int key = (status == GestureLockView.STATUS_FINGER_UP_DONE ? 360 : 0) + degree;
+        if (mArrowSlots[key] == 0) {
+            int slot = render(status, degree);
+            if (slot < 0) {
+                return -1;
+            }
+            mArrowSlots[key] = slot + 1;
+        }
+        return mArrowSlots[key] - 1;
+    }
+
+    /**
+     * 在下一个空闲槽位中绘制格子
+     *
+     * @return 槽位，已用完时返回 -1
+     */
+    private int render(int status, int arrowDegree) {
+        if (mUsedSlots >= mSlotCount) {
+            return -1;
+        }
+        int slot = mUsedSlots++;
+        int half = mSize / 2;
+        mRenderer.draw(mAtlasCanvas, (slot % mColumns) * mSize + half, (slot / mColumns) * mSize + half,
+                status, arrowDegree);
+        return slot;
+    }
+}
@@ -0,0 +1,214 @@
+package com.stone.gesturelock;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ *  手指抬起后成功/失败提示的时间线：保持（hold）→ 淡出（fade）→ 重置（reset）。
+ *
+ *  由 Choreographer 的帧回调驱动，所有时间都以帧时间（vsync）为准，起点是 start 之后的第一帧；
+ *  Android 4.1 以下没有 Choreographer，改用 Handler 每 16ms 模拟一帧。
+ *
+ *  同一时间只有一条时间线，再次 start 会替换掉还没走完的那条；cancel 后不会再有任何回调。
+ *  从窗口移除时只是暂停帧回调，重新添加后按经过的时间继续，已经过期的直接走到重置。
+ *  只能在主线程使用。
+ */
+
+class FeedbackTimeline {
+
+    interface Listener {
+
+        /**
+         * 淡出过程中每帧回调一次
+         *
+         * @param alpha 从1到0
+         */
+        void onFeedbackFade(float alpha);
+
+        /**
+         * 时间线走完，需要重置面板
+         */
+        void onFeedbackEnd();
+    }
+
+    private static final int PHASE_IDLE = 0;
+    private static final int PHASE_HOLD = 1;
+    private static final int PHASE_FADE = 2;
+
+    private static final long NANOS_PER_MILLIS = 1000000L;
+    private static final long FALLBACK_FRAME_MILLIS = 16L;
+    /**
+     * 默认的淡出时长
+     */
+    static final long DEFAULT_FADE_MILLIS = 150L;
+
+    private final Listener mListener;
+    private final FrameSource mFrameSource;
+
+    private int mPhase = PHASE_IDLE;
+    private long mHoldNanos;
+    private long mFadeNanos = DEFAULT_FADE_MILLIS * NANOS_PER_MILLIS;
+    /**
+     * 时间线起点的帧时间，-1 表示还没有收到第一帧
+     */
+    private long mStartNanos = -1;
+    private boolean isAttached = true;
+    private boolean isFrameScheduled = false;
+
+    FeedbackTimeline(Listener listener) {
+        this.mListener = listener;
+        this.mFrameSource = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new ChoreographerFrameSource(this) : new HandlerFrameSource(this);
+    }
+
+    void setFadeDuration(long fadeMillis) {
+        this.mFadeNanos = Math.max(0, fadeMillis) * NANOS_PER_MILLIS;
+    }
+
+    /**
+     * 开始新的时间线，替换掉还没走完的那条
+     *
+     * @param holdMillis 淡出前保持的时间
+     */
+    void start(long holdMillis) {
+        mPhase = PHASE_HOLD;
+        mHoldNanos = holdMillis * NANOS_PER_MILLIS;
+        mStartNanos = -1;
+        scheduleFrame(0);
+    }
+
+    /**
+     * 取消时间线，之后不会再有回调
+     */
+    void cancel() {
+        mPhase = PHASE_IDLE;
+        mStartNanos = -1;
+        removeFrame();
+    }
+
+    boolean isRunning() {
+        return mPhase != PHASE_IDLE;
+    }
+
+    void onAttachedToWindow() {
+        isAttached = true;
+        if (mPhase != PHASE_IDLE) {
+            scheduleFrame(0);
+        }
+    }
+
+    void onDetachedFromWindow() {
+        isAttached = false;
+        removeFrame();
+    }
+
+    void doFrame(long frameTimeNanos) {
+        isFrameScheduled = false;
+        if (mPhase == PHASE_IDLE || !isAttached) {
+            return;
+        }
+        if (mStartNanos < 0) {
+            mStartNanos = frameTimeNanos;
+        }
+        long elapsed = frameTimeNanos - mStartNanos;
+        if (elapsed < mHoldNanos) {
+            // 保持阶段不需要每帧回调，直接等到淡出开始的那一帧
+            scheduleFrame((mHoldNanos - elapsed) / NANOS_PER_MILLIS);
+            return;
+        }
+        long fadeElapsed = elapsed - mHoldNanos;
+        if (fadeElapsed < mFadeNanos) {
+            mPhase = PHASE_FADE;
+            mListener.onFeedbackFade(1f - (float) fadeElapsed / mFadeNanos);
+            scheduleFrame(0);
+            return;
+        }
+        mPhase = PHASE_IDLE;
+        mStartNanos = -1;
+        mListener.onFeedbackEnd();
+    }
+
+    private void scheduleFrame(long delayMillis) {
+        if (!isAttached) {
+            return;
+        }
+        removeFrame();
+        isFrameScheduled = true;
+        mFrameSource.postFrame(delayMillis);
+    }
+
+    private void removeFrame() {
+        if (isFrameScheduled) {
+            isFrameScheduled = false;
+            mFrameSource.removeFrame();
+        }
+    }
+
+    private interface FrameSource {
+        void postFrame(long delayMillis);
+
+        void removeFrame();
+    }
+
+    /**
+     * Android 4.1 及以上，与 vsync 对齐
+     */
+    private static final class ChoreographerFrameSource implements FrameSource, Choreographer.FrameCallback {
+
+        private final FeedbackTimeline mTimeline;
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        ChoreographerFrameSource(FeedbackTimeline timeline) {
+            this.mTimeline = timeline;
+        }
+
+        @Override
+        public void postFrame(long delayMillis) {
+            if (delayMillis > 0) {
+                mChoreographer.postFrameCallbackDelayed(this, delayMillis);
+            } else {
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void removeFrame() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mTimeline.doFrame(frameTimeNanos);
+        }
+    }
+
+    /**
+     * Android 4.1 以下，用 Handler 模拟帧
+     */
+    private static final class HandlerFrameSource implements FrameSource, Runnable {
+
+        private final FeedbackTimeline mTimeline;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        HandlerFrameSource(FeedbackTimeline timeline) {
+            this.mTimeline = timeline;
+        }
+
+        @Override
+        public void postFrame(long delayMillis) {
+            mHandler.postDelayed(this, Math.max(delayMillis, FALLBACK_FRAME_MILLIS));
+        }
+
+        @Override
+        public void removeFrame() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            mTimeline.doFrame(System.nanoTime());
+        }
+    }
+}
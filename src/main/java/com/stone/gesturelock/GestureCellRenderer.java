@@ -0,0 +1,204 @@
+package com.stone.gesturelock;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import java.util.ArrayList;
+
+/**
+ *  在任意位置绘制一个格子（外圆、内圆、箭头）。
+ *
+ *  所有格子边长相同，因此半径、箭头路径和每种状态的画笔按（边长，颜色）只计算一次，
+ *  通过 obtain 在进程内所有 GestureLockView 和 GestureLockViewGroup 之间共享，
+ *  只在主线程绘制，绘制时不再修改画笔。预渲染缓存按使用者计数，最后一个使用者释放后立即回收，
+ *  缓存中只保留画笔和路径，不会让图集的 Bitmap 一直留在进程中。
+ */
+
+final class GestureCellRenderer {
+
+    /**
+     * 最多缓存几组（边长，颜色），超出后丢弃最久未使用的
+     */
+    private static final int MAX_CACHED = 4;
+    private static final ArrayList<GestureCellRenderer> sCache = new ArrayList<>(MAX_CACHED + 1);
+
+    /**
+     * 画笔的宽度
+     */
+    private static final int STROKE_WIDTH = 2;
+    /**
+     * 箭头（小三角最长边的一半长度 = ARROW_RATE * size / 2 ）
+     */
+    private static final float ARROW_RATE = 0.333f;
+    /**
+     * 内圆的半径 = INNER_CIRCLE_RADIUS_RATE * mRadius
+     */
+    private static final float INNER_CIRCLE_RADIUS_RATE = 0.3F;
+
+    private static final int STATUS_COUNT = 4;
+
+    private final int mSize;
+    private final int mColorNoFingerInner;
+    private final int mColorNoFingerOutter;
+    private final int mColorFingerOn;
+    private final int mColorFingerUpFailed;
+    private final int mColorFingerUpDone;
+
+    /**
+     * 外圆半径
+     */
+    private final float mRadius;
+    /**
+     * 内圆半径
+     */
+    private final float mInnerRadius;
+    /**
+     * 以格子中心为原点、箭头朝上的三角形
+     */
+    private final Path mArrowPath = new Path();
+
+    /**
+     * 每种状态下外圆和内圆（以及箭头）的画笔
+     */
+    private final Paint[] mOuterPaints = new Paint[STATUS_COUNT];
+    private final Paint[] mInnerPaints = new Paint[STATUS_COUNT];
+
+    /**
+     * 预渲染缓存，第一个使用者获取时创建，最后一个使用者释放时回收
+     */
+    private CellSpriteAtlas mSpriteAtlas;
+    private int mSpriteAtlasUsers;
+
+    /**
+     * 获取（边长，颜色）对应的共享实例
+     */
+    static GestureCellRenderer obtain(int size, int colorNoFingerInner, int colorNoFingerOutter,
+                                      int colorFingerOn, int colorFingerUpFailed, int colorFingerUpDone) {
+        synchronized (sCache) {
+            for (int i = sCache.size() - 1; i >= 0; i--) {
+                GestureCellRenderer renderer = sCache.get(i);
+                if (renderer.matches(size, colorNoFingerInner, colorNoFingerOutter, colorFingerOn,
+                        colorFingerUpFailed, colorFingerUpDone)) {
+                    // 移到末尾，末尾为最近使用
+                    if (i != sCache.size() - 1) {
+                        sCache.remove(i);
+                        sCache.add(renderer);
+                    }
+                    return renderer;
+                }
+            }
+            GestureCellRenderer renderer = new GestureCellRenderer(size, colorNoFingerInner,
+                    colorNoFingerOutter, colorFingerOn, colorFingerUpFailed, colorFingerUpDone);
+            sCache.add(renderer);
+            if (sCache.size() > MAX_CACHED) {
+                sCache.remove(0);
+            }
+            return renderer;
+        }
+    }
+
+    private GestureCellRenderer(int size, int colorNoFingerInner, int colorNoFingerOutter, int colorFingerOn,
+                                int colorFingerUpFailed, int colorFingerUpDone) {
+        this.mSize = size;
+        this.mColorNoFingerInner = colorNoFingerInner;
+        this.mColorNoFingerOutter = colorNoFingerOutter;
+        this.mColorFingerOn = colorFingerOn;
+        this.mColorFingerUpFailed = colorFingerUpFailed;
+        this.mColorFingerUpDone = colorFingerUpDone;
+
+        mRadius = size / 2 - STROKE_WIDTH / 2;
+        mInnerRadius = mRadius * INNER_CIRCLE_RADIUS_RATE;
+
+        // 初始时是个默认箭头朝上的一个等腰三角形，绘制时根据两个格子的位置旋转
+        float half = size / 2;
+        float arrowLength = half * ARROW_RATE;
+        float top = STROKE_WIDTH + 2 - half;
+        mArrowPath.moveTo(0, top);
+        mArrowPath.lineTo(-arrowLength, top + arrowLength);
+        mArrowPath.lineTo(arrowLength, top + arrowLength);
+        mArrowPath.close();
+        mArrowPath.setFillType(Path.FillType.WINDING);
+
+        // 无手指时外圆和内圆都是实心的
+        mOuterPaints[GestureLockView.STATUS_NO_FINGER] = newPaint(Paint.Style.FILL, colorNoFingerOutter);
+        mInnerPaints[GestureLockView.STATUS_NO_FINGER] = newPaint(Paint.Style.FILL, colorNoFingerInner);
+        // 其他状态外圆描边，内圆和箭头实心
+        initRingPaints(GestureLockView.STATUS_FINGER_ON, colorFingerOn);
+        initRingPaints(GestureLockView.STATUS_FINGER_UP_FAILED, colorFingerUpFailed);
+        initRingPaints(GestureLockView.STATUS_FINGER_UP_DONE, colorFingerUpDone);
+    }
+
+    private void initRingPaints(int status, int color) {
+        Paint outer = newPaint(Paint.Style.STROKE, color);
+        outer.setStrokeWidth(STROKE_WIDTH);
+        mOuterPaints[status] = outer;
+        mInnerPaints[status] = newPaint(Paint.Style.FILL, color);
+    }
+
+    private static Paint newPaint(Paint.Style style, int color) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(style);
+        paint.setColor(color);
+        return paint;
+    }
+
+    private boolean matches(int size, int colorNoFingerInner, int colorNoFingerOutter, int colorFingerOn,
+                            int colorFingerUpFailed, int colorFingerUpDone) {
+        return mSize == size && mColorNoFingerInner == colorNoFingerInner
+                && mColorNoFingerOutter == colorNoFingerOutter && mColorFingerOn == colorFingerOn
+                && mColorFingerUpFailed == colorFingerUpFailed && mColorFingerUpDone == colorFingerUpDone;
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 获取同一（边长，颜色）共享的预渲染缓存，内存上限内放不下时为null；不再使用时调用 releaseSpriteAtlas
+     */
+    CellSpriteAtlas acquireSpriteAtlas() {
+        if (mSpriteAtlasUsers++ == 0) {
+            mSpriteAtlas = CellSpriteAtlas.create(this);
+        }
+        return mSpriteAtlas;
+    }
+
+    /**
+     * 释放 acquireSpriteAtlas 获取的预渲染缓存，没有使用者时回收，包括已经被挤出缓存的实例
+     */
+    void releaseSpriteAtlas() {
+        if (mSpriteAtlasUsers == 0 || --mSpriteAtlasUsers > 0) {
+            return;
+        }
+        if (mSpriteAtlas != null) {
+            mSpriteAtlas.recycle();
+            mSpriteAtlas = null;
+        }
+    }
+
+    /**
+     * 以 (cx, cy) 为中心绘制一个格子
+     *
+     * @param status      GestureLockView.STATUS_*
+     * @param arrowDegree 箭头旋转角度，-1 表示不绘制箭头
+     */
+    void draw(Canvas canvas, float cx, float cy, @GestureLockView.GestureStatus int status, int arrowDegree) {
+        if (status < 0 || status >= STATUS_COUNT) {
+            status = GestureLockView.STATUS_NO_FINGER;
+        }
+        // 绘制外圆
+        canvas.drawCircle(cx, cy, mRadius, mOuterPaints[status]);
+        // 绘制内圆
+        canvas.drawCircle(cx, cy, mInnerRadius, mInnerPaints[status]);
+
+        // 绘制箭头
+        if (arrowDegree != -1 && (status == GestureLockView.STATUS_FINGER_UP_FAILED
+                || status == GestureLockView.STATUS_FINGER_UP_DONE)) {
+            canvas.save();
+            canvas.translate(cx, cy);
+            canvas.rotate(arrowDegree, 0, 0);
+            canvas.drawPath(mArrowPath, mInnerPaints[status]);
+            canvas.restore();
+        }
+    }
+}
@@ -2,8 +2,6 @@ package com.stone.gesturelock;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Path;
 import android.support.annotation.IntDef;
 import android.view.View;
 import java.lang.annotation.Retention;
@@ -35,35 +33,14 @@ public class GestureLockView extends View {
      * 高度
      */
     private int mHeight;
-    /**
-     * 外圆半径
-     */
-    private int mRadius;
-
-    /**
-     * 画笔的宽度
-     */
-    private int mStrokeWidth = 2;
 
     /**
      * 圆心坐标
      */
     private int mCenterX;
     private int mCenterY;
-    private Paint mPaint;
-
 
-    /**
-     * 箭头（小三角最长边的一半长度 = mArrawRate * mWidth / 2 ）
-     */
-    private float mArrowRate = 0.333f;
     private int mArrowDegree = -1;
-    private Path mArrowPath;
-    /**
-     * 内圆的半径 = mInnerCircleRadiusRate * mRadus
-     *
-     */
-    private float mInnerCircleRadiusRate = 0.3F;
 
     /**
      * 四个颜色，可由用户自定义，初始化时由GestureLockViewGroup传入
@@ -74,6 +51,16 @@ public class GestureLockView extends View {
     private int mColorFingerUpFailed;
     private int mColorFingerUpDone;
 
+    /**
+     * 同样边长和颜色的格子共用的半径、箭头和画笔
+     */
+    private GestureCellRenderer mRenderer;
+
+    /**
+     * GestureLockViewGroup共享的预渲染缓存，为null时直接绘制
+     */
+    private CellSpriteAtlas mSpriteAtlas;
+
     @IntDef({STATUS_NO_FINGER, STATUS_FINGER_ON, STATUS_FINGER_UP_FAILED, STATUS_FINGER_UP_DONE})
     @Retention(RetentionPolicy.SOURCE)
     public @interface GestureStatus {}
@@ -85,12 +72,6 @@ public class GestureLockView extends View {
         this.mColorFingerOn = colorFingerOn;
         this.mColorFingerUpFailed = colorFingerOnFailed;
         this.mColorFingerUpDone = colorFingerOnDone;
-        init();
-    }
-
-    private void init() {
-        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);//
-        mArrowPath = new Path();
     }
 
     @Override
@@ -101,92 +82,26 @@ public class GestureLockView extends View {
 
         // 取长和宽中的小值
         mWidth = mWidth < mHeight ? mWidth : mHeight;
-        mRadius = mCenterX = mCenterY = mWidth / 2;
-        mRadius -= mStrokeWidth / 2;
-
-        // 绘制三角形，初始时是个默认箭头朝上的一个等腰三角形，用户绘制结束后，根据由两个GestureLockView决定需要旋转多少度
-        float arrowLength = mWidth / 2 * mArrowRate;
-        mArrowPath.moveTo(mWidth / 2, mStrokeWidth + 2);
-        mArrowPath.lineTo(mWidth / 2 - arrowLength, mStrokeWidth + 2
-                + arrowLength);
-        mArrowPath.lineTo(mWidth / 2 + arrowLength, mStrokeWidth + 2
-                + arrowLength);
-        mArrowPath.close();
-        mArrowPath.setFillType(Path.FillType.WINDING);
+        mCenterX = mCenterY = mWidth / 2;
+
+        // 半径、箭头等只在边长变化时重新获取，所有同样大小的格子共用一份
+        if (mRenderer == null || mRenderer.getSize() != mWidth) {
+            mRenderer = GestureCellRenderer.obtain(mWidth, mColorNoFingerInner, mColorNoFingerOutter,
+                    mColorFingerOn, mColorFingerUpFailed, mColorFingerUpDone);
+        }
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        switch (mStatus) {
-            case STATUS_FINGER_ON:
-
-                // 绘制外圆
-                mPaint.setStyle(Paint.Style.STROKE);
-                mPaint.setColor(mColorFingerOn);
-                mPaint.setStrokeWidth(2);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius, mPaint);
-                // 绘制内圆
-                mPaint.setStyle(Paint.Style.FILL);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius
-                        * mInnerCircleRadiusRate, mPaint);
-                break;
-            case STATUS_FINGER_UP_FAILED:
-                // 绘制外圆
-                mPaint.setColor(mColorFingerUpFailed);
-                mPaint.setStyle(Paint.Style.STROKE);
-                mPaint.setStrokeWidth(2);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius, mPaint);
-                // 绘制内圆
-                mPaint.setStyle(Paint.Style.FILL);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius
-                        * mInnerCircleRadiusRate, mPaint);
-
-                drawArrow(canvas);
-                break;
-
-            case STATUS_FINGER_UP_DONE :
-                // 绘制外圆
-                mPaint.setColor(mColorFingerUpDone);
-                mPaint.setStyle(Paint.Style.STROKE);
-                mPaint.setStrokeWidth(2);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius, mPaint);
-                // 绘制内圆
-                mPaint.setStyle(Paint.Style.FILL);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius
-                        * mInnerCircleRadiusRate, mPaint);
-
-                drawArrow(canvas);
-
-                break;
-            case STATUS_NO_FINGER:
-
-                // 绘制外圆
-                mPaint.setStyle(Paint.Style.FILL);
-                mPaint.setColor(mColorNoFingerOutter);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius, mPaint);
-                // 绘制内圆
-                mPaint.setColor(mColorNoFingerInner);
-                canvas.drawCircle(mCenterX, mCenterY, mRadius
-                        * mInnerCircleRadiusRate, mPaint);
-                break;
+        if (mRenderer == null) {
+            return;
         }
-    }
-
-    /**
-     * 绘制箭头
-     * @param canvas
-     */
-    private void drawArrow(Canvas canvas) {
-        if (mArrowDegree != -1) {
-            mPaint.setStyle(Paint.Style.FILL);
-
-            canvas.save();
-            canvas.rotate(mArrowDegree, mCenterX, mCenterY);
-            canvas.drawPath(mArrowPath, mPaint);
-
-            canvas.restore();
+        if (mSpriteAtlas != null && mSpriteAtlas.getSize() == mWidth
+                && mSpriteAtlas.draw(canvas, 0, 0, mStatus, mArrowDegree)) {
+            return;
         }
+        mRenderer.draw(canvas, mCenterX, mCenterY, mStatus, mArrowDegree);
     }
 
     /**
@@ -200,6 +115,12 @@ public class GestureLockView extends View {
         invalidate();
     }
 
+    void setSpriteAtlas(CellSpriteAtlas spriteAtlas)
+    {
+        this.mSpriteAtlas = spriteAtlas;
+        invalidate();
+    }
+
     public void setArrowDegree(int degree)
     {
         this.mArrowDegree = degree;
@@ -6,18 +6,33 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
-import android.view.View;
 import android.widget.RelativeLayout;
+import com.stone.gesturelock.core.GestureEngine;
+import com.stone.gesturelock.core.GestureMetrics;
+import com.stone.gesturelock.core.GestureTracer;
+import com.stone.gesturelock.core.GestureLockStore;
+import com.stone.gesturelock.core.GridHitTester;
+import com.stone.gesturelock.core.Pattern;
+import com.stone.gesturelock.core.PatternBlacklist;
+import com.stone.gesturelock.core.PatternHash;
+import com.stone.gesturelock.core.PatternSelection;
+import com.stone.gesturelock.core.PatternSnapshot;
+import com.stone.gesturelock.core.PatternStrength;
+import com.stone.gesturelock.core.PatternView;
+import com.stone.gesturelock.core.TouchRecording;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by Stone on 2017/7/19.
@@ -28,37 +43,55 @@ import java.util.List;
  *  关于GestureLockView的边长（n*n）： n * mGestureLockViewWidth + ( n + 1 ) *
  *  mMarginBetweenLockView = mWidth ; 得：mGestureLockViewWidth = 4 * mWidth / ( 5
  *  mCount + 1 ) 注：mMarginBetweenLockView = mGestureLockViewWidth * 0.25 ;
+ *
+ *  设置、解锁、修改手势的逻辑都在 GestureEngine 中，这里只负责把触摸事件交给它并绘制它的输出
 
  */
 
 public class GestureLockViewGroup extends RelativeLayout {
 
-    private static final String TAG = "GestureLockViewGroup";
-
     /**
-     * 保存所有的GestureLockView
+     * 保存所有的GestureLockView，扁平绘制模式下为null
      */
     private GestureLockView[] mGestureLockViews;
+    /**
+     * 减少格子个数时移除的GestureLockView，增加格子个数时优先复用
+     */
+    private final ArrayList<GestureLockView> mCellViewPool = new ArrayList<>();
+    /**
+     * 扁平绘制模式下每个格子的状态和箭头角度
+     */
+    private byte[] mCellStatus;
+    private int[] mCellArrowDegree;
+    /**
+     * 负责绘制格子（扁平绘制模式）以及提供预渲染缓存，同样边长和颜色的实例在进程内共享
+     */
+    private GestureCellRenderer mCellRenderer;
+    /**
+     * 是否使用预渲染缓存绘制格子
+     */
+    private boolean isSpriteCache = false;
+    /**
+     * 所有格子共用的预渲染缓存，以及从哪个 GestureCellRenderer 获取的（离开窗口时释放）
+     */
+    private CellSpriteAtlas mSpriteAtlas;
+    private GestureCellRenderer mSpriteAtlasRenderer;
+    /**
+     * 是否在窗口中，只在窗口中时持有预渲染缓存
+     */
+    private boolean isAttached = false;
     /**
      * 每个边上的GestureLockView的个数
      */
     private int mCount = 3;
     /**
-     * 存储答案
+     * 手势的状态机，触摸事件交给它处理，通过 Callback 更新界面
      */
-    private Integer [] mAnswer = {};
-
-
-
-    private List<Integer> mFirstAnswer;
-
-    private boolean isFirstTime = true;
-
-    private boolean isActionDone = false;
+    private final GestureEngine mEngine = new GestureEngine(new EngineCallback());
     /**
-     * 保存用户选中的GestureLockView的id
+     * 用户选中的格子id，由 mEngine 维护
      */
-    private List<Integer> mChoose = new ArrayList<>();
+    private final PatternView mChoose = mEngine.getSelection();
 
     private Paint mPaint;
     /**
@@ -69,6 +102,30 @@ public class GestureLockViewGroup extends RelativeLayout {
      * GestureLockView的边长 4 * mWidth / ( 5 * mCount + 1 )
      */
     private int mGestureLockViewWidth;
+    /**
+     * 命中区域半径与GestureLockView边长的比例，小于等于0时沿用内边距 mGestureLockViewWidth * 15% 的方形区域
+     */
+    private float mHitRadiusRate = 0;
+    /**
+     * 命中区域是否为圆形
+     */
+    private boolean isHitCircle = false;
+    /**
+     * 根据网格几何参数计算触点落入的GestureLockView
+     */
+    private final GridHitTester mHitTester = mEngine.getHitTester();
+    /**
+     * 是否计算相邻两个触点之间的线段经过的格子，快速滑动时不会漏选
+     */
+    private boolean isSegmentHitTest = false;
+    /**
+     * 是否自动选中两个格子之间的连线经过的格子
+     */
+    private boolean isSelectBetween = false;
+    /**
+     * 设置手势时是否拒绝内置黑名单（res/raw/gesture_weak_patterns）中的常见图案
+     */
+    private boolean isRejectCommonPatterns = false;
 
     /**
      * GestureLockView无手指触摸的状态下内圆的颜色
@@ -97,8 +154,18 @@ public class GestureLockViewGroup extends RelativeLayout {
      * 高度
      */
     private int mHeight;
+    /**
+     * 当前格子布局对应的面板边长和每个边上的格子个数，二者都不变时不重新计算布局
+     */
+    private int mLayoutSide;
+    private int mLayoutCount;
 
     private Path mPath;
+    /**
+     * 是否用 drawLines 绘制连线（并缓存已画好的线段），代替每帧描边 mPath
+     */
+    private boolean isBatchedTrail = false;
+    private GestureTrailRenderer mTrail;
     /**
      * 指引线的开始位置x
      */
@@ -111,27 +178,83 @@ public class GestureLockViewGroup extends RelativeLayout {
      * 指引下的结束位置
      */
     private Point mTmpTarget = new Point();
+    /**
+     * 本次触摸事件需要重绘的区域（旧的和新的指引线、新选中的格子和新的连线）
+     */
+    private Rect mDirtyRect = new Rect();
+    /**
+     * 连线画笔宽度的一半，用于扩大重绘区域
+     */
+    private int mDirtyInset;
 
     /**
-     * 最大尝试次数
+     * 成功或失败提示的时间线：保持、淡出、重置
      */
-    private int mTryTimes = 3;
+    private final FeedbackTimeline mTimeline = new FeedbackTimeline(new FeedbackTimeline.Listener() {
+        @Override
+        public void onFeedbackFade(float alpha) {
+            fadeFeedback(alpha);
+        }
+
+        @Override
+        public void onFeedbackEnd() {
+            endFeedback();
+        }
+    });
     /**
-     * 回调接口
+     * 提示开始时连线的透明度，淡出时以此为基准
      */
-    private OnGestureLockViewListener mOnGestureLockViewListener;
+    private int mFeedbackAlpha;
+    /**
+     * 跟踪区间，为null时不跟踪
+     */
+    private GestureTracer mTracer;
+    /**
+     * 性能统计，为null时不统计
+     */
+    private GestureMetrics mMetrics;
+    /**
+     * 最早一个还未绘制的触摸事件的时间（SystemClock.uptimeMillis），0表示没有
+     */
+    private long mPendingInputTime;
+    /**
+     * 录制收到的触摸事件，为null时不录制
+     */
+    private TouchRecording mRecording;
 
-    public static final int ACTION_UNDEFINED = 0x000;
-    public static final int ACTION_LOCK = 0x100;
-    public static final int ACTION_UNLOCK = 0x200;
-    public static final int ACTION_MODIFY = 0x300;
-    private boolean isUnlocked = false;
+    public static final int ACTION_UNDEFINED = GestureEngine.ACTION_UNDEFINED;
+    public static final int ACTION_LOCK = GestureEngine.ACTION_LOCK;
+    public static final int ACTION_UNLOCK = GestureEngine.ACTION_UNLOCK;
+    public static final int ACTION_MODIFY = GestureEngine.ACTION_MODIFY;
 
     @IntDef({ACTION_UNDEFINED, ACTION_LOCK, ACTION_UNLOCK, ACTION_MODIFY})
     @Retention(RetentionPolicy.SOURCE)
     public @interface GestureLockAction {}
 
-    private @GestureLockAction int mAction = ACTION_UNDEFINED;
+    /**
+     * 每个格子是一个GestureLockView子View
+     */
+    public static final int RENDER_MODE_CHILD_VIEWS = 0;
+    /**
+     * 不创建子View，由GestureLockViewGroup自己绘制所有格子
+     */
+    public static final int RENDER_MODE_FLAT = 1;
+
+    @IntDef({RENDER_MODE_CHILD_VIEWS, RENDER_MODE_FLAT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface RenderMode {}
+
+    @IntDef({PatternStrength.LEVEL_WEAK, PatternStrength.LEVEL_FAIR, PatternStrength.LEVEL_GOOD,
+            PatternStrength.LEVEL_STRONG})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface PatternStrengthLevel {}
+
+    private @RenderMode int mRenderMode = RENDER_MODE_CHILD_VIEWS;
+
+    /**
+     * 内置黑名单按格子个数缓存，只在主线程中访问
+     */
+    private static final HashMap<Integer, Future<PatternBlacklist>> sBundledBlacklists = new HashMap<>();
 
     public GestureLockViewGroup(Context context, AttributeSet attrs) {
         this(context, attrs, 0);
@@ -144,6 +267,7 @@ public class GestureLockViewGroup extends RelativeLayout {
          */
         TypedArray a = context.getTheme().obtainStyledAttributes(attrs,
                 R.styleable.GestureLockViewGroup, defStyleAttr, 0);
+        int tryTimes = 3;
         int n = a.getIndexCount();
         for (int i = 0; i < n; i ++) {
             int attr = a.getIndex(i);
@@ -165,10 +289,48 @@ public class GestureLockViewGroup extends RelativeLayout {
                 mCount = a.getInt(attr, 3);
 
             } else if (attr == R.styleable.GestureLockViewGroup_tryTimes) {
-                mTryTimes = a.getInt(attr, 5);
+                tryTimes = a.getInt(attr, 5);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_hitRadiusRate) {
+                mHitRadiusRate = a.getFloat(attr, mHitRadiusRate);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_hitCircle) {
+                isHitCircle = a.getBoolean(attr, isHitCircle);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_renderMode) {
+                mRenderMode = a.getInt(attr, mRenderMode);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_segmentHitTest) {
+                isSegmentHitTest = a.getBoolean(attr, isSegmentHitTest);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_spriteCache) {
+                isSpriteCache = a.getBoolean(attr, isSpriteCache);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_batchedTrail) {
+                isBatchedTrail = a.getBoolean(attr, isBatchedTrail);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_selectBetween) {
+                isSelectBetween = a.getBoolean(attr, isSelectBetween);
+
+            } else if (attr == R.styleable.GestureLockViewGroup_rejectCommonPatterns) {
+                isRejectCommonPatterns = a.getBoolean(attr, isRejectCommonPatterns);
             }
         }
         a.recycle();
+        mEngine.setCount(mCount);
+        mEngine.setTryTimes(tryTimes);
+        mEngine.setSegmentHitTest(isSegmentHitTest);
+        mEngine.setSelectBetween(isSelectBetween);
+        if (isRejectCommonPatterns) {
+            loadBundledBlacklist();
+        }
+        // 后台比较的结果回到主线程处理
+        mEngine.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        });
 
         // 初始化画笔
         mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -182,318 +344,611 @@ public class GestureLockViewGroup extends RelativeLayout {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-
         mWidth = MeasureSpec.getSize(widthMeasureSpec);
         mHeight = MeasureSpec.getSize(heightMeasureSpec);
 
         mHeight = mWidth = mWidth < mHeight ? mWidth : mHeight;
 
-        // setMeasuredDimension(mWidth, mHeight);
-
-        // 初始化mGestureLockViews
-        if (mGestureLockViews == null) {
-
-            mGestureLockViews = new GestureLockView[mCount * mCount];
-            // 计算每个GestureLockView的宽度
-            mGestureLockViewWidth = (int) (4 * mWidth * 1.0f / (5 * mCount + 1));
-            //计算每个GestureLockView的间距
-            mMarginBetweenLockView = (int) (mGestureLockViewWidth * 0.25);
-            // 设置画笔的宽度为GestureLockView的内圆直径稍微小点（不喜欢的话，随便设）
-            mPaint.setStrokeWidth(mGestureLockViewWidth * 0.29f);
-
-            for (int i = 0; i < mGestureLockViews.length; i++) {
-                //初始化每个GestureLockView
-                mGestureLockViews[i] = new GestureLockView(getContext(),
-                        mNoFingerInnerCircleColor, mNoFingerOuterCircleColor,
-                        mFingerOnColor, mFingerUpFailedColor, mFingerUpDoneColor);
-                mGestureLockViews[i].setId(i + 1);
-                //设置参数，主要是定位GestureLockView间的位置
-                RelativeLayout.LayoutParams lockerParams = new RelativeLayout.LayoutParams(
-                        mGestureLockViewWidth, mGestureLockViewWidth);
-
-                // 不是每行的第一个，则设置位置为前一个的右边
-                if (i % mCount != 0) {
-                    lockerParams.addRule(RelativeLayout.RIGHT_OF,
-                            mGestureLockViews[i - 1].getId());
-                }
-                // 从第二行开始，设置为上一行同一位置View的下面
-                if (i > mCount - 1) {
-                    lockerParams.addRule(RelativeLayout.BELOW,
-                            mGestureLockViews[i - mCount].getId());
-                }
-                //设置右下左上的边距
-                int rightMargin = mMarginBetweenLockView;
-                int bottomMargin = mMarginBetweenLockView;
-                int leftMagin = 0;
-                int topMargin = 0;
-                /**
-                 * 每个View都有右外边距和底外边距 第一行的有上外边距 第一列的有左外边距
-                 */
-                if (i >= 0 && i < mCount)// 第一行
-                {
-                    topMargin = mMarginBetweenLockView;
-                }
-                if (i % mCount == 0)// 第一列
-                {
-                    leftMagin = mMarginBetweenLockView;
-                }
+        // 在测量子View之前按新的边长更新格子布局，子View在同一次测量中得到新的大小
+        updateLayout();
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        if (mRenderMode == RENDER_MODE_FLAT) {
+            // 扁平绘制模式没有子View，wrap_content 时 RelativeLayout 只会测量出内边距的大小
+            setMeasuredDimension(resolveSize(mWidth, widthMeasureSpec), resolveSize(mHeight, heightMeasureSpec));
+        }
+        updateHitTester();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // 旋转、分屏等改变大小后，测量时通常已经更新过布局，这里只在没有更新时补上
+        updateLayout();
+        updateHitTester();
+    }
+
+    /**
+     * 按面板边长和格子个数计算格子边长、间距和连线宽度，并复用已有的格子（子View或状态数组），
+     * 边长和格子个数都没有变化时直接返回
+     */
+    private void updateLayout() {
+        if (mWidth <= 0 || (mWidth == mLayoutSide && mCount == mLayoutCount)) {
+            return;
+        }
+        GestureTracer tracer = mTracer;
+        if (tracer != null) {
+            tracer.beginSection(GestureTracer.SECTION_LAYOUT);
+        }
+        mLayoutSide = mWidth;
+        mLayoutCount = mCount;
+
+        // 计算每个GestureLockView的宽度
+        mGestureLockViewWidth = (int) (4 * mWidth * 1.0f / (5 * mCount + 1));
+        //计算每个GestureLockView的间距
+        mMarginBetweenLockView = (int) (mGestureLockViewWidth * 0.25);
+        // 设置画笔的宽度为GestureLockView的内圆直径稍微小点（不喜欢的话，随便设）
+        mPaint.setStrokeWidth(mGestureLockViewWidth * 0.29f);
+        mDirtyInset = (int) Math.ceil(mGestureLockViewWidth * 0.29f / 2) + 1;
 
-                lockerParams.setMargins(leftMagin, topMargin, rightMargin,
-                        bottomMargin);
-                mGestureLockViews[i].setStatus(GestureLockView.STATUS_NO_FINGER);
+
+        mCellRenderer = GestureCellRenderer.obtain(mGestureLockViewWidth, mNoFingerInnerCircleColor,
+                mNoFingerOuterCircleColor, mFingerOnColor, mFingerUpFailedColor, mFingerUpDoneColor);
+
+        if (mRenderMode == RENDER_MODE_FLAT) {
+            initFlatCells();
+        } else {
+            layoutChildViews();
+        }
+        updateSpriteAtlas();
+        updateHitTester();
+        updateTrailRenderer();
+        rebuildPath();
+        if (tracer != null) {
+            tracer.endSection(GestureTracer.SECTION_LAYOUT);
+        }
+    }
+
+    /**
+     * 扁平绘制模式：只保存每个格子的状态，在dispatchDraw中统一绘制
+     */
+    private void initFlatCells() {
+        if (mCellStatus != null && mCellStatus.length == mCount * mCount) {
+            return;
+        }
+        mCellStatus = new byte[mCount * mCount];
+        mCellArrowDegree = new int[mCount * mCount];
+        for (int i = 0; i < mCellArrowDegree.length; i++) {
+            mCellStatus[i] = GestureLockView.STATUS_NO_FINGER;
+            mCellArrowDegree[i] = -1;
+        }
+    }
+
+    /**
+     * 兼容模式：每个格子一个GestureLockView子View。已有的子View只更新位置和大小，
+     * 格子变少时多出来的放回 mCellViewPool，格子变多时优先从中取出
+     */
+    private void layoutChildViews() {
+        int cells = mCount * mCount;
+        int old = mGestureLockViews == null ? 0 : mGestureLockViews.length;
+        if (old != cells) {
+            GestureLockView[] views = new GestureLockView[cells];
+            if (old > 0) {
+                System.arraycopy(mGestureLockViews, 0, views, 0, Math.min(old, cells));
+            }
+            for (int i = cells; i < old; i++) {
+                removeView(mGestureLockViews[i]);
+                mCellViewPool.add(mGestureLockViews[i]);
+            }
+            mGestureLockViews = views;
+        }
+        for (int i = 0; i < cells; i++) {
+            //设置参数，主要是定位GestureLockView间的位置
+            RelativeLayout.LayoutParams lockerParams = new RelativeLayout.LayoutParams(
+                    mGestureLockViewWidth, mGestureLockViewWidth);
+
+            // 不是每行的第一个，则设置位置为前一个的右边
+            if (i % mCount != 0) {
+                lockerParams.addRule(RelativeLayout.RIGHT_OF,
+                        mGestureLockViews[i - 1].getId());
+            }
+            // 从第二行开始，设置为上一行同一位置View的下面
+            if (i > mCount - 1) {
+                lockerParams.addRule(RelativeLayout.BELOW,
+                        mGestureLockViews[i - mCount].getId());
+            }
+            //设置右下左上的边距
+            int rightMargin = mMarginBetweenLockView;
+            int bottomMargin = mMarginBetweenLockView;
+            int leftMagin = 0;
+            int topMargin = 0;
+            /**
+             * 每个View都有右外边距和底外边距 第一行的有上外边距 第一列的有左外边距
+             */
+            if (i >= 0 && i < mCount)// 第一行
+            {
+                topMargin = mMarginBetweenLockView;
+            }
+            if (i % mCount == 0)// 第一列
+            {
+                leftMagin = mMarginBetweenLockView;
+            }
+
+            lockerParams.setMargins(leftMagin, topMargin, rightMargin,
+                    bottomMargin);
+            if (i < old) {
+                mGestureLockViews[i].setLayoutParams(lockerParams);
+            } else {
+                mGestureLockViews[i] = obtainCellView(i);
                 addView(mGestureLockViews[i], lockerParams);
             }
+        }
+    }
+
+    /**
+     * 从 mCellViewPool 中取出或者新建一个未选中状态的GestureLockView
+     */
+    private GestureLockView obtainCellView(int index) {
+        GestureLockView view;
+        if (mCellViewPool.isEmpty()) {
+            view = new GestureLockView(getContext(),
+                    mNoFingerInnerCircleColor, mNoFingerOuterCircleColor,
+                    mFingerOnColor, mFingerUpFailedColor, mFingerUpDoneColor);
+        } else {
+            view = mCellViewPool.remove(mCellViewPool.size() - 1);
+        }
+        view.setId(index + 1);
+        view.setStatus(GestureLockView.STATUS_NO_FINGER);
+        view.setArrowDegree(-1);
+        view.setSpriteAtlas(mSpriteAtlas);
+        return view;
+    }
+
+    /**
+     * 按当前的格子边长和颜色更新预渲染缓存，同样边长和颜色的缓存在进程内共享；
+     * 边长、颜色变化或者离开窗口时释放之前的缓存，最后一个使用者释放后图集被回收
+     */
+    private void updateSpriteAtlas() {
+        GestureCellRenderer renderer = isSpriteCache && isAttached ? mCellRenderer : null;
+        if (renderer == mSpriteAtlasRenderer) {
+            return;
+        }
+        CellSpriteAtlas atlas = renderer != null ? renderer.acquireSpriteAtlas() : null;
+        GestureCellRenderer previous = mSpriteAtlasRenderer;
+        mSpriteAtlasRenderer = renderer;
+        mSpriteAtlas = atlas;
+        if (mGestureLockViews != null) {
+            for (GestureLockView gestureLockView : mGestureLockViews) {
+                gestureLockView.setSpriteAtlas(atlas);
+            }
+        }
+        for (GestureLockView gestureLockView : mCellViewPool) {
+            gestureLockView.setSpriteAtlas(atlas);
+        }
+        // 所有格子都不再引用之前的图集后才释放，它可能被回收
+        if (previous != null) {
+            previous.releaseSpriteAtlas();
+        }
+        invalidate();
+    }
+
+    /**
+     * 按当前的面板大小和连线宽度创建（或释放）连线的绘制缓存，已经选中的格子会重新连上
+     */
+    private void updateTrailRenderer() {
+        if (!isBatchedTrail || mWidth <= 0) {
+            if (mTrail != null) {
+                mTrail.release();
+                mTrail = null;
+            }
+            return;
+        }
+        float strokeWidth = mPaint.getStrokeWidth();
+        if (mTrail != null && mTrail.getWidth() == mWidth && mTrail.getHeight() == mHeight
+                && mTrail.getStrokeWidth() == strokeWidth && mTrail.getMaxNodes() == mCount * mCount) {
+            return;
+        }
+        if (mTrail != null) {
+            mTrail.release();
+        }
+        mTrail = new GestureTrailRenderer(mWidth, mHeight, mCount * mCount, strokeWidth);
+        for (int i = 0; i < mChoose.size(); i++) {
+            mTrail.add(getCellCenterX(mChoose.get(i) - 1), getCellCenterY(mChoose.get(i) - 1));
+        }
+    }
 
-            Log.e(TAG, "mWidth = " + mWidth + " ,  mGestureViewWidth = "
-                    + mGestureLockViewWidth + " , mMarginBetweenLockView = "
-                    + mMarginBetweenLockView);
+    /**
+     * 格子位置变化后按新的位置重新生成已经选中的格子间的连线
+     */
+    private void rebuildPath() {
+        mPath.reset();
+        for (int i = 0; i < mChoose.size(); i++) {
+            int index = mChoose.get(i) - 1;
+            mLastPathX = getCellCenterX(index);
+            mLastPathY = getCellCenterY(index);
+            if (i == 0) {
+                mPath.moveTo(mLastPathX, mLastPathY);
+            } else {
+                mPath.lineTo(mLastPathX, mLastPathY);
+            }
+        }
+    }
 
+    /**
+     * 更新命中判断所需的网格几何参数
+     */
+    private void updateHitTester() {
+        mHitTester.setGeometry(mCount, mGestureLockViewWidth, mMarginBetweenLockView,
+                getPaddingLeft(), getPaddingTop());
+        int diameter;
+        if (mHitRadiusRate > 0) {
+            diameter = (int) (2 * mGestureLockViewWidth * mHitRadiusRate);
+        } else {
+            //设置了内边距，即x,y必须落入下GestureLockView的内部中间的小区域中，可以通过调整padding使得x,y落入范围不变大，或者不设置padding
+            int padding = (int) (mGestureLockViewWidth * 0.15);
+            diameter = mGestureLockViewWidth - 2 * padding;
         }
+        mHitTester.setHitArea(diameter, isHitCircle);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if(isActionDone || mTryTimes == 0 || mAction == ACTION_UNDEFINED) {
+        GestureTracer tracer = mTracer;
+        if (tracer == null) {
+            return handleTouchEvent(event);
+        }
+        tracer.beginSection(GestureTracer.SECTION_TOUCH_EVENT);
+        try {
+            return handleTouchEvent(event);
+        } finally {
+            tracer.endSection(GestureTracer.SECTION_TOUCH_EVENT);
+        }
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
+        if (!mEngine.isAcceptingTouch()) {
             return true;
         }
+        if (mRecording != null) {
+            // 只录制交给 mEngine 的事件，重放时不会处理设备上被丢弃的事件
+            record(event);
+        }
+        long startNanos = mMetrics != null ? System.nanoTime() : 0;
         int action = event.getAction();
         int x = (int) event.getX();
         int y = (int) event.getY();
+        // 只有状态变化（成功、失败）时才需要重绘整个面板
+        boolean fullRedraw = false;
 
         switch (action)
         {
             case MotionEvent.ACTION_DOWN:
-                // 重置
+                mEngine.onTouchDown(x, y);
                 break;
             case MotionEvent.ACTION_MOVE:
                 mPaint.setColor(mFingerOnColor);
                 mPaint.setAlpha(50);
-                GestureLockView child = getChildIdByPos(x, y);
-                if (child != null) {
-                    int cId = child.getId();
-                    if (!mChoose.contains(cId)) {
-                        mChoose.add(cId);
-                        child.setStatus(GestureLockView.STATUS_FINGER_ON);
-                        // 设置指引线的起点
-                        mLastPathX = child.getLeft() / 2 + child.getRight() / 2;
-                        mLastPathY = child.getTop() / 2 + child.getBottom() / 2;
-
-                        if (mChoose.size() == 1) {// 当前添加为第一个
-                            mPath.moveTo(mLastPathX, mLastPathY);
-                        } else {// 非第一个，将两者使用线连上
-                            mPath.lineTo(mLastPathX, mLastPathY);
-                        }
-                    }
+                // 擦除旧的指引线
+                if (mChoose.size() > 0) {
+                    dirtyLine(mLastPathX, mLastPathY, mTmpTarget.x, mTmpTarget.y);
                 }
+                // 一个ACTION_MOVE中可能合并了多个触点，按时间顺序逐个处理
+                int historySize = event.getHistorySize();
+                for (int h = 0; h < historySize; h++) {
+                    mEngine.onTouchMove((int) event.getHistoricalX(h), (int) event.getHistoricalY(h));
+                }
+                mEngine.onTouchMove(x, y);
                 // 指引线的终点
                 mTmpTarget.x = x;
                 mTmpTarget.y = y;
+                if (mChoose.size() > 0) {
+                    dirtyLine(mLastPathX, mLastPathY, x, y);
+                }
                 break;
             case MotionEvent.ACTION_UP:
+                fullRedraw = true;
                 mPaint.setAlpha(50);
-                // 回调是否成功
-                if (mOnGestureLockViewListener != null && mChoose.size() > 0) {
-                    switch (mAction) {
-                        case ACTION_LOCK :
-                            if(isFirstTime) {
-                                isFirstTime = false;
-                                changeItemStatus(true);
-                                mPaint.setColor(mFingerUpDoneColor);
-//                                mFirstAnswer = mChoose.subList(0, mChoose.size());
-                                mFirstAnswer = new ArrayList<>(mChoose);
-                                mOnGestureLockViewListener.onFirstLock(mAction, mFirstAnswer);
-                                mHandler.sendEmptyMessageDelayed(100, 1000L);
-                            } else {
-                                if(checkLockAnswer()) {
-                                    isActionDone = true;
-                                    mPaint.setColor(mFingerUpDoneColor);
-                                    mOnGestureLockViewListener.onSecondLockSucceeded(mAction, mFirstAnswer);
-                                    mHandler.sendEmptyMessageDelayed(100, 1000L);
-                                } else {
-                                    isActionDone = false;
-                                    mPaint.setColor(mFingerUpFailedColor);
-                                    mOnGestureLockViewListener.onSecondLockFailed(mAction);
-                                    mHandler.sendEmptyMessageDelayed(100, 500L);
-                                }
-                                changeItemStatus(isActionDone);
-                            }
-                            break;
-                        case ACTION_UNLOCK :
-                            //延迟重置
-                            if(checkUnlockAnswer()) {
-                                isActionDone = true;
-                                mPaint.setColor(mFingerUpDoneColor);
-                                mOnGestureLockViewListener.onUnlockCorrect(mAction, mChoose);
-                                mHandler.sendEmptyMessageDelayed(100, 1000L);
-                            } else {
-                                isActionDone = false;
-                                mPaint.setColor(mFingerUpFailedColor);
-                                mOnGestureLockViewListener.onUnlockError(mAction, mChoose, mTryTimes);
-                                mHandler.sendEmptyMessageDelayed(100, 500L);
-                            }
-                            changeItemStatus(isActionDone);
-                            this.mTryTimes--;
-                            if (this.mTryTimes == 0) {
-                                mOnGestureLockViewListener.noMoreTry(mAction);
-                            }
-                            break;
-                        case ACTION_MODIFY :
-                            if(!isUnlocked) {
-                                if(checkUnlockAnswer()) {
-                                    isUnlocked = true;
-                                    changeItemStatus(true);
-                                    mPaint.setColor(mFingerUpDoneColor);
-                                    mOnGestureLockViewListener.onUnlockCorrect(mAction, mChoose);
-                                    mHandler.sendEmptyMessageDelayed(100, 1000L);
-                                } else {
-                                    changeItemStatus(false);
-                                    mPaint.setColor(mFingerUpFailedColor);
-                                    mOnGestureLockViewListener.onUnlockError(mAction, mChoose, mTryTimes);
-                                    mHandler.sendEmptyMessageDelayed(100, 500L);
-                                }
-                                this.mTryTimes--;
-                                if (this.mTryTimes == 0) {
-                                    mOnGestureLockViewListener.noMoreTry(mAction);
-                                }
-                            } else {
-                                if(isFirstTime) {
-                                    isFirstTime = false;
-                                    changeItemStatus(true);
-                                    mPaint.setColor(mFingerUpDoneColor);
-                                    mFirstAnswer = new ArrayList<>(mChoose);
-                                    mOnGestureLockViewListener.onFirstLock(mAction, mFirstAnswer);
-                                    mHandler.sendEmptyMessageDelayed(100, 1000L);
-                                } else {
-                                    if(checkLockAnswer()) {
-                                        isActionDone = true;
-                                        mPaint.setColor(mFingerUpDoneColor);
-                                        mOnGestureLockViewListener.onSecondLockSucceeded(mAction, mFirstAnswer);
-                                        mHandler.sendEmptyMessageDelayed(100, 1000L);
-                                    } else {
-                                        isActionDone = false;
-                                        mPaint.setColor(mFingerUpFailedColor);
-                                        mOnGestureLockViewListener.onSecondLockFailed(mAction);
-                                        mHandler.sendEmptyMessageDelayed(100, 500L);
-                                    }
-                                    changeItemStatus(isActionDone);
-                                }
-                            }
-
-                            break;
-                        case ACTION_UNDEFINED :
-                        default:
-                            break;
-
-                    }
-                }
-
-                Log.e(TAG, "mUnMatchExceedBoundary = " + mTryTimes);
-                Log.e(TAG, "mChoose = " + mChoose);
+                // 回调是否成功，计算箭头角度
+                mEngine.onTouchUp();
                 // 将终点设置位置为起点，即取消指引线
                 mTmpTarget.x = mLastPathX;
                 mTmpTarget.y = mLastPathY;
+                break;
 
-                // 计算每个元素中箭头需要旋转的角度
-                for (int i = 0; i + 1 < mChoose.size(); i++) {
-                    int childId = mChoose.get(i);
-                    int nextChildId = mChoose.get(i + 1);
+        }
+        if (fullRedraw) {
+            invalidate();
+        } else if (!mDirtyRect.isEmpty()) {
+            invalidate(mDirtyRect);
+        }
+        mDirtyRect.setEmpty();
+        if (mMetrics != null) {
+            if (mPendingInputTime == 0) {
+                mPendingInputTime = event.getEventTime();
+            }
+            mMetrics.recordTouchEvent(System.nanoTime() - startNanos, event.getHistorySize() + 1);
+        }
+        return true;
+    }
 
-                    GestureLockView startChild = (GestureLockView) findViewById(childId);
-                    GestureLockView nextChild = (GestureLockView) findViewById(nextChildId);
+    /**
+     * 录制一个触摸事件（包括历史触点），几何参数或模式变化后录制会停止
+     */
+    private void record(MotionEvent event) {
+        int action = event.getAction() & MotionEvent.ACTION_MASK;
+        if (action == MotionEvent.ACTION_DOWN
+                && !mRecording.beginGesture(mHitTester, isSegmentHitTest, isSelectBetween, mEngine.getAction())) {
+            return;
+        }
+        if (!mRecording.beginEvent(action)) {
+            return;
+        }
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            mRecording.addSample(event.getHistoricalEventTime(h),
+                    (int) event.getHistoricalX(h), (int) event.getHistoricalY(h));
+        }
+        mRecording.addSample(event.getEventTime(), (int) event.getX(), (int) event.getY());
+    }
 
-                    int dx = nextChild.getLeft() - startChild.getLeft();
-                    int dy = nextChild.getTop() - startChild.getTop();
-                    // 计算角度
-                    int angle = (int) Math.toDegrees(Math.atan2(dy, dx)) + 90;
-                    startChild.setArrowDegree(angle);
-                }
-                break;
+    /**
+     * 将一条连线（或指引线）覆盖的区域加入重绘区域
+     */
+    private void dirtyLine(int x0, int y0, int x1, int y1) {
+        mDirtyRect.union(Math.min(x0, x1) - mDirtyInset, Math.min(y0, y1) - mDirtyInset,
+                Math.max(x0, x1) + mDirtyInset, Math.max(y0, y1) + mDirtyInset);
+    }
 
+    /**
+     * 格子被选中，将其连入路径
+     */
+    private void onCellSelected(int cIndex, int previous) {
+        setCellStatus(cIndex, GestureLockView.STATUS_FINGER_ON);
+        int left = mHitTester.getCellLeft(cIndex);
+        int top = mHitTester.getCellTop(cIndex);
+        mDirtyRect.union(left, top, left + mGestureLockViewWidth, top + mGestureLockViewWidth);
+
+        int lastX = mLastPathX;
+        int lastY = mLastPathY;
+        // 设置指引线的起点
+        mLastPathX = getCellCenterX(cIndex);
+        mLastPathY = getCellCenterY(cIndex);
+
+        if (mTrail != null) {
+            mTrail.add(mLastPathX, mLastPathY);
+        }
+        if (previous == GridHitTester.NO_CELL) {// 当前添加为第一个
+            mPath.moveTo(mLastPathX, mLastPathY);
+        } else {// 非第一个，将两者使用线连上
+            mPath.lineTo(mLastPathX, mLastPathY);
+            dirtyLine(lastX, lastY, mLastPathX, mLastPathY);
         }
-        invalidate();
-        return true;
     }
 
     private void changeItemStatus(boolean isActionDone)
     {
         int status = isActionDone ? GestureLockView.STATUS_FINGER_UP_DONE : GestureLockView.STATUS_FINGER_UP_FAILED;
-        for (GestureLockView gestureLockView : mGestureLockViews)
+        for (int i = 0; i < mChoose.size(); i++)
         {
-            if (mChoose.contains(gestureLockView.getId()))
-            {
-                gestureLockView.setStatus(status);
-            }
+            setCellStatus(mChoose.get(i) - 1, status);
+        }
+    }
+
+    /**
+     * 设置格子的状态，兼容模式下交给对应的GestureLockView
+     */
+    private void setCellStatus(int index, @GestureLockView.GestureStatus int status) {
+        if (mGestureLockViews != null) {
+            mGestureLockViews[index].setStatus(status);
+        } else if (mCellStatus != null) {
+            mCellStatus[index] = (byte) status;
+        }
+    }
+
+    private void setCellArrowDegree(int index, int degree) {
+        if (mGestureLockViews != null) {
+            mGestureLockViews[index].setArrowDegree(degree);
+        } else if (mCellArrowDegree != null) {
+            mCellArrowDegree[index] = degree;
         }
     }
 
+    private int getCellCenterX(int index) {
+        return mHitTester.getCellLeft(index) + mGestureLockViewWidth / 2;
+    }
+
+    private int getCellCenterY(int index) {
+        return mHitTester.getCellTop(index) + mGestureLockViewWidth / 2;
+    }
+
     /**
      *
      * 做一些必要的重置
      */
     private void reset() {
-        mChoose.clear();
         mPath.reset();
-        for (GestureLockView gestureLockView : mGestureLockViews)
+        if (mTrail != null) {
+            mTrail.clear();
+        }
+        for (int i = 0; i < mCount * mCount; i++)
         {
-            gestureLockView.setStatus(GestureLockView.STATUS_NO_FINGER);
-            gestureLockView.setArrowDegree(-1);
+            setCellStatus(i, GestureLockView.STATUS_NO_FINGER);
+            setCellArrowDegree(i, -1);
         }
     }
 
     /**
-     * 检查用户绘制的手势是否正确
-     * @return
+     * 把 GestureEngine 的输出画到界面上
      */
-    private boolean checkUnlockAnswer() {
-        if (mAnswer.length != mChoose.size())
-            return false;
+    private class EngineCallback implements GestureEngine.Callback {
 
-        for (int i = 0; i < mAnswer.length; i++) {
-            if (mAnswer[i] != mChoose.get(i))
-                return false;
+        @Override
+        public void onCellSelected(int index, int previous) {
+            GestureLockViewGroup.this.onCellSelected(index, previous);
+            if (mMetrics != null) {
+                mMetrics.recordCellSelected();
+            }
+        }
+
+        @Override
+        public void onCellArrow(int index, int degree) {
+            setCellArrowDegree(index, degree);
+        }
+
+        @Override
+        public void onFeedback(boolean succeeded, long holdMillis) {
+            changeItemStatus(succeeded);
+            mPaint.setColor(succeeded ? mFingerUpDoneColor : mFingerUpFailedColor);
+            startFeedback(holdMillis);
+            invalidate();
+        }
+
+        @Override
+        public void onReset() {
+            // 提示还没结束时（例如新的手势开始）停止淡出
+            if (mTimeline.isRunning()) {
+                mTimeline.cancel();
+                mPaint.setAlpha(mFeedbackAlpha);
+            }
+            reset();
+            invalidate();
+        }
+
+        @Override
+        public void onStateChanged(int state) {
         }
-        return true;
     }
 
-    private boolean checkLockAnswer() {
-        return mFirstAnswer.size() == mChoose.size() && mFirstAnswer.equals(mChoose);
+    /**
+     * 设置绘制模式，需要在第一次measure之前调用
+     *
+     * @param renderMode
+     */
+    public void setRenderMode(@RenderMode int renderMode) {
+        this.mRenderMode = renderMode;
     }
 
     /**
-     * 检查当前坐标是否在某个GestureLockView中
-     * @param gestureLockView
-     * @param x
-     * @param y
-     * @return
+     * 设置是否计算相邻两个触点之间的线段经过的格子
+     *
+     * @param segmentHitTest
      */
-    private boolean checkPositionInChild(View gestureLockView, int x, int y) {
+    public void setSegmentHitTest(boolean segmentHitTest) {
+        this.isSegmentHitTest = segmentHitTest;
+        mEngine.setSegmentHitTest(segmentHitTest);
+    }
 
-        //设置了内边距，即x,y必须落入下GestureLockView的内部中间的小区域中，可以通过调整padding使得x,y落入范围不变大，或者不设置padding
-        int padding = (int) (mGestureLockViewWidth * 0.15);
+    /**
+     * 设置是否自动选中新格子与上一个格子之间的连线经过的未选中格子，与系统图案锁相同，
+     * 例如3*3中从1直接滑到3时会选中2；经过的格子在每个大小的网格中只计算一次
+     *
+     * @param selectBetween
+     */
+    public void setSelectBetween(boolean selectBetween) {
+        this.isSelectBetween = selectBetween;
+        mEngine.setSelectBetween(selectBetween);
+    }
 
-        return x >= gestureLockView.getLeft() + padding && x <= gestureLockView.getRight() - padding
-                && y >= gestureLockView.getTop() + padding
-                && y <= gestureLockView.getBottom() - padding;
+    /**
+     * 设置是否用 drawLines 批量绘制连线并缓存已经画好的线段，代替每帧描边 Path，效果相同
+     *
+     * @param batchedTrail
+     */
+    public void setBatchedTrail(boolean batchedTrail) {
+        this.isBatchedTrail = batchedTrail;
+        updateTrailRenderer();
+        invalidate();
+    }
+
+    /**
+     * 设置是否将格子的各个状态预渲染到一张共享的图集中，绘制时直接拷贝
+     *
+     * @param spriteCache
+     */
+    public void setSpriteCache(boolean spriteCache) {
+        this.isSpriteCache = spriteCache;
+        updateSpriteAtlas();
+    }
+
+    /**
+     * 设置每个边上的格子个数，可以在显示后随时切换（例如3*3和4*4），
+     * 会清空当前的选择并重新开始设置手势，已有的格子View会被复用。
+     * 个数变化时已经设置的答案（包括 setStore 保存的）会被清除并保存，需要重新设置手势
+     *
+     * @param count 1 ~ 15
+     */
+    public void setCount(int count) {
+        if (count < 1 || count * count > PatternSelection.MAX_ID) {
+            throw new IllegalArgumentException("invalid count: " + count);
+        }
+        if (count == mCount) {
+            return;
+        }
+        mEngine.cancelVerify();
+        mEngine.reset();
+        mCount = count;
+        mEngine.setCount(count);
+        if (isRejectCommonPatterns) {
+            loadBundledBlacklist();
+        }
+        // 立即按新的格子个数更新布局和命中判断，下一次布局之前的触摸事件不会命中旧网格上的格子
+        updateLayout();
+        updateHitTester();
+        requestLayout();
+        invalidate();
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 设置手势（以及修改手势的新手势）时是否拒绝常见图案：直线、L形、Z形、U形、方框等，
+     * 内置的黑名单在后台读取，被拒绝时回调 OnPatternStrengthListener.onWeakPattern；
+     * 读取完成前第一次绘制的图案无法检查，显示失败并以 GestureEngine.ATTEMPT_CHECK_PENDING 回调 OnGestureAttemptListener
+     *
+     * @param reject
+     */
+    public void setRejectCommonPatterns(boolean reject) {
+        this.isRejectCommonPatterns = reject;
+        if (reject) {
+            loadBundledBlacklist();
+        } else {
+            mEngine.setBlacklist(null);
+        }
+    }
+
+    /**
+     * 使用自定义的黑名单（例如从泄露数据生成的），代替内置的黑名单，
+     * 通过 PatternBlacklist.readAsync 在后台读取，大小与 getCount 相同时才检查，读取完成前第一次绘制的图案被拒绝
+     *
+     * @param blacklist 为null时不检查
+     */
+    public void setPatternBlacklist(Future<PatternBlacklist> blacklist) {
+        this.isRejectCommonPatterns = false;
+        mEngine.setBlacklist(blacklist);
     }
 
     /**
-     * 通过x,y获得落入的GestureLockView
-     * @param x
-     * @param y
-     * @return
+     * 在后台读取内置黑名单中当前大小的部分，每个大小在进程内只读取一次，反复切换格子个数时不会重复读取
      */
-    private GestureLockView getChildIdByPos(int x, int y) {
-        for (GestureLockView gestureLockView : mGestureLockViews) {
-            if (checkPositionInChild(gestureLockView, x, y)) {
-                return gestureLockView;
+    private void loadBundledBlacklist() {
+        Future<PatternBlacklist> blacklist = sBundledBlacklists.get(mCount);
+        if (blacklist == null) {
+            try {
+                blacklist = PatternBlacklist.readAsync(
+                        getResources().openRawResource(R.raw.gesture_weak_patterns), mCount);
+            } catch (RejectedExecutionException e) {
+                // 后台线程不可用，这一次不检查
+                mEngine.setBlacklist(null);
+                return;
             }
+            sBundledBlacklists.put(mCount, blacklist);
         }
-        return null;
+        mEngine.setBlacklist(blacklist);
     }
 
     public void setAction(@GestureLockAction int action) {
-        this.mAction = action;
+        mEngine.setAction(action);
     }
 
     /**
@@ -505,23 +960,107 @@ public class GestureLockViewGroup extends RelativeLayout {
         if(answer == null || answer.length ==0) {
             return;
         }
-        this.mAnswer = answer ;
+        setAnswer(Pattern.fromArray(mCount, answer));
     }
 
     /**
-     * 设置最大实验次数
+     * 对外公布设置答案的方法
+     *
+     * @param answer
+     */
+    public void setAnswer(Pattern answer) {
+        mEngine.setAnswer(answer);
+    }
+
+    /**
+     * 设置之前保存的答案摘要
+     *
+     * @param answerHash
+     */
+    public void setAnswerHash(PatternHash answerHash) {
+        mEngine.setAnswerHash(answerHash);
+    }
+
+    /**
+     * 设置持久化存储，会立即读取之前保存的答案摘要和剩余尝试次数（只读一个很小的文件），
+     * 之后尝试次数和新设置的答案都会在后台写入。恢复了剩余次数后 setUnMatchExceedBoundary 不会再增加它，
+     * 两者的调用顺序没有关系
+     *
+     * @param store 为null时不再保存
+     */
+    public void setStore(GestureLockStore store) {
+        mEngine.setStore(store);
+    }
+
+    /**
+     * 尝试次数用完的时间（毫秒），0表示没有被锁定
+     */
+    public long getLockoutTime() {
+        return mEngine.getLockoutTime();
+    }
+
+    /**
+     * 设置命中区域
+     *
+     * @param radiusRate 命中区域半径与GestureLockView边长的比例，小于等于0时恢复默认的方形区域
+     * @param circle 是否为圆形区域
+     */
+    public void setHitArea(float radiusRate, boolean circle) {
+        this.mHitRadiusRate = radiusRate;
+        this.isHitCircle = circle;
+        updateHitTester();
+    }
+
+    /**
+     * 设置最大实验次数，setStore 恢复了保存的剩余次数时只会减少它
      *
      * @param boundary
      */
     public void setUnMatchExceedBoundary(int boundary) {
-        this.mTryTimes = boundary;
+        mEngine.setTryTimes(boundary);
+    }
+
+    /**
+     * 重新设置剩余尝试次数，覆盖保存的次数，例如用户用密码重新验证了身份之后
+     *
+     * @param boundary
+     */
+    public void resetUnMatchExceedBoundary(int boundary) {
+        mEngine.resetTryTimes(boundary);
     }
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
+        GestureTracer tracer = mTracer;
+        if (tracer == null) {
+            drawGesture(canvas);
+            return;
+        }
+        tracer.beginSection(GestureTracer.SECTION_DRAW);
+        try {
+            drawGesture(canvas);
+        } finally {
+            tracer.endSection(GestureTracer.SECTION_DRAW);
+        }
+    }
+
+    private void drawGesture(Canvas canvas) {
+        long startNanos = mMetrics != null ? System.nanoTime() : 0;
         super.dispatchDraw(canvas);
+        //扁平绘制模式下绘制所有格子
+        if (mCellStatus != null) {
+            for (int i = 0; i < mCellStatus.length; i++) {
+                if (mSpriteAtlas == null || !mSpriteAtlas.draw(canvas, mHitTester.getCellLeft(i),
+                        mHitTester.getCellTop(i), mCellStatus[i], mCellArrowDegree[i])) {
+                    mCellRenderer.draw(canvas, getCellCenterX(i), getCellCenterY(i),
+                            mCellStatus[i], mCellArrowDegree[i]);
+                }
+            }
+        }
         //绘制GestureLockView间的连线
-        if (mPath != null) {
+        if (mTrail != null) {
+            mTrail.draw(canvas, mPaint);
+        } else if (mPath != null) {
             canvas.drawPath(mPath, mPaint);
         }
         //绘制指引线
@@ -530,31 +1069,111 @@ public class GestureLockViewGroup extends RelativeLayout {
                 canvas.drawLine(mLastPathX, mLastPathY, mTmpTarget.x,
                         mTmpTarget.y, mPaint);
         }
+        if (mMetrics != null) {
+            recordFrame(System.nanoTime() - startNanos);
+        }
     }
 
-    private DelayHandler mHandler = new DelayHandler();
+    private void recordFrame(long drawNanos) {
+        long inputLatency = -1;
+        if (mPendingInputTime != 0) {
+            inputLatency = (SystemClock.uptimeMillis() - mPendingInputTime) * 1000000L;
+            mPendingInputTime = 0;
+        }
+        int cells = mCount * mCount;
+        // 连线的段数加上指引线
+        int segments = mChoose.size();
+        mMetrics.recordFrame(drawNanos, inputLatency, cells, segments);
+    }
 
-    private class DelayHandler extends Handler {
+    /**
+     * 设置跟踪区间（触摸事件、绘制、检查答案、重置、布局），代替原来写死的日志，没有设置时只多一次判空。
+     * SystemTracer 输出到 systrace / Perfetto，TraceEventLog 可以导出为 Chrome trace-event JSON 文件
+     *
+     * @param tracer 为null时关闭
+     */
+    public void setTracer(GestureTracer tracer) {
+        this.mTracer = tracer;
+        mEngine.setTracer(tracer);
+    }
 
-        @Override
-        public void handleMessage(Message msg) {
-            super.handleMessage(msg);
-            if(mTryTimes == 0 || isActionDone) {
-                return;
-            }
-            reset();
-            postInvalidate();
+    /**
+     * 打开性能统计：触摸事件处理时间、输入到绘制的延迟、每帧绘制时间以及处理的格子和连线段数，
+     * 记录时不分配对象，通过 GestureMetrics.snapshot 轮询
+     *
+     * @param metrics 为null时关闭统计
+     */
+    public void setMetrics(GestureMetrics metrics) {
+        this.mMetrics = metrics;
+        this.mPendingInputTime = 0;
+    }
+
+    public GestureMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 录制之后收到的触摸事件，可以写入文件后用 TouchReplayer 在 JVM 上重放。
+     * 格子个数、面板大小或模式变化后录制会停止（TouchRecording.isStopped），需要设置新的录制
+     *
+     * @param recording 为null时停止录制
+     */
+    public void setTouchRecording(TouchRecording recording) {
+        this.mRecording = recording;
+        if (recording != null) {
+            recording.setGeometry(mHitTester, isSegmentHitTest, mEngine.getAction());
+            recording.setSelectBetween(isSelectBetween);
         }
     }
 
+    /**
+     * 显示成功或失败的提示，保持一段时间后淡出并重置
+     *
+     * @param holdMillis 淡出前保持的时间
+     */
+    private void startFeedback(long holdMillis) {
+        mFeedbackAlpha = mPaint.getAlpha();
+        mTimeline.start(holdMillis);
+    }
+
+    private void fadeFeedback(float alpha) {
+        if (!mEngine.shouldResetAfterFeedback()) {
+            return;
+        }
+        mPaint.setAlpha((int) (mFeedbackAlpha * alpha));
+        invalidate();
+    }
+
+    private void endFeedback() {
+        mPaint.setAlpha(mFeedbackAlpha);
+        mEngine.finishFeedback();
+    }
+
+    /**
+     * 接收后台比较的结果
+     */
+    private final Handler mHandler = new Handler();
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mTimeline.onAttachedToWindow();
+        isAttached = true;
+        updateSpriteAtlas();
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        //销毁一些对象回收资源
-        if(mHandler != null) {
-            mHandler.removeMessages(100);
-            mHandler = null;
+        // 暂停提示的时间线，重新添加到窗口后继续；取消后台比较
+        mTimeline.onDetachedFromWindow();
+        if (mTrail != null) {
+            mTrail.release();
         }
+        isAttached = false;
+        updateSpriteAtlas();
+        mEngine.cancelVerify();
+        mHandler.removeCallbacksAndMessages(null);
     }
 
     /**
@@ -564,27 +1183,78 @@ public class GestureLockViewGroup extends RelativeLayout {
      */
     public void setOnGestureLockViewListener(OnGestureLockViewListener listener)
     {
-        this.mOnGestureLockViewListener = listener;
+        mEngine.setListener(listener);
+    }
+
+    /**
+     * 设置每次尝试的回调，图案以对象池中的只读快照传递，不随每次尝试分配，
+     * 需要在回调之后使用时先 retain，用完后 release；与 OnGestureLockViewListener 一起设置才会回调
+     *
+     * @param listener 为null时不再回调
+     */
+    public void setOnGestureAttemptListener(OnGestureAttemptListener listener) {
+        mEngine.setAttemptListener(listener);
+    }
+
+    public interface OnGestureAttemptListener extends GestureEngine.AttemptListener {
+
+        /**
+         *  @param result GestureEngine.ATTEMPT_*
+         *  @param snapshot 只在回调中有效，保存或交给其他线程前先 retain，用完后 release
+         */
+        void onAttempt(@GestureLockAction int action, int result, PatternSnapshot snapshot);
+    }
+
+    /**
+     * 设置手势时的图案强度回调，强度表在后台计算，完成之前不回调也不检查强度
+     *
+     * @param listener 为null时不再回调
+     */
+    public void setOnPatternStrengthListener(OnPatternStrengthListener listener) {
+        mEngine.setStrengthListener(listener);
+    }
+
+    /**
+     * 设置手势时允许的最低强度，低于它的图案显示失败并回调 onWeakPattern，需要重新绘制；
+     * 强度表在后台创建完成前第一次绘制的图案无法检查，同样显示失败（GestureEngine.ATTEMPT_CHECK_PENDING）
+     *
+     * @param level PatternStrength.LEVEL_WEAK 表示不限制
+     */
+    public void setMinPatternStrength(@PatternStrengthLevel int level) {
+        mEngine.setMinStrength(level);
+    }
+
+    public interface OnPatternStrengthListener extends GestureEngine.StrengthListener {
+
+        /**
+         *  设置手势的第一次绘制中每选中一个格子回调一次，strength 会被重复使用
+         */
+        void onStrengthChanged(PatternStrength strength);
+
+        /**
+         *  图案强度低于 setMinPatternStrength，需要重新绘制
+         */
+        void onWeakPattern(@GestureLockAction int action, PatternStrength strength);
     }
 
-    public interface OnGestureLockViewListener {
+    public interface OnGestureLockViewListener extends GestureEngine.Listener {
 
-        void onFirstLock(@GestureLockAction int action,List<Integer> answer);
+        void onFirstLock(@GestureLockAction int action,Pattern answer);
 
-        void onSecondLockSucceeded(@GestureLockAction int action,List<Integer> answer);
+        void onSecondLockSucceeded(@GestureLockAction int action,Pattern answer);
 
         void onSecondLockFailed(@GestureLockAction int action);
         /**
          *  手势解锁成功
          */
-        void onUnlockCorrect(@GestureLockAction int action, List<Integer> answer);
+        void onUnlockCorrect(@GestureLockAction int action, Pattern answer);
 
         /**
          *  手势解锁失败
          *  @param answer
          *  @param chances
          */
-        void onUnlockError(@GestureLockAction int action, List<Integer> answer, int chances);
+        void onUnlockError(@GestureLockAction int action, Pattern answer, int chances);
 
         /**
          *  手势解锁超过尝试次数
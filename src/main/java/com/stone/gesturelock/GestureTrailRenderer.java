@@ -0,0 +1,158 @@
+package com.stone.gesturelock;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ *  用 drawLines / drawPoints 绘制格子之间的连线，代替每帧重新细分的粗描边 Path。
+ *
+ *  节点和线段端点保存在预先分配的 float[] 中；线段用平头（BUTT）一次 drawLines 画出，
+ *  节点用圆头的 drawPoints 补上，效果等同于圆角连接、圆头的 Path。
+ *  已经画好的线段缓存在一张 ALPHA_8 的 Bitmap 中，新增节点时只画新的线段，每帧只需用连线画笔
+ *  （颜色和透明度）绘制这张图，半透明时重叠部分也不会变深，与绘制 Path 的效果一致。
+ *
+ *  只在主线程使用。
+ */
+
+class GestureTrailRenderer {
+
+    private final int mWidth;
+    private final int mHeight;
+    /**
+     * 每个节点的 x, y
+     */
+    private final float[] mNodes;
+    /**
+     * 第 i 条线段（节点 i 到 i + 1）的端点，占 [4 * i, 4 * i + 4)
+     */
+    private final float[] mLines;
+    private int mNodeCount;
+    /**
+     * 已经画到缓存中的节点个数
+     */
+    private int mCachedNodes;
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mPointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Bitmap mCache;
+    private Canvas mCacheCanvas;
+    /**
+     * 创建缓存失败（内存不足）时直接绘制，透明度重叠处会略深
+     */
+    private boolean isCacheDisabled = false;
+
+    /**
+     * @param width       面板宽度
+     * @param height      面板高度
+     * @param maxNodes    最多的节点个数（格子个数）
+     * @param strokeWidth 连线宽度
+     */
+    GestureTrailRenderer(int width, int height, int maxNodes, float strokeWidth) {
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mNodes = new float[2 * maxNodes];
+        this.mLines = new float[4 * Math.max(0, maxNodes - 1)];
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeCap(Paint.Cap.BUTT);
+        mLinePaint.setStrokeWidth(strokeWidth);
+        mPointPaint.setStyle(Paint.Style.STROKE);
+        mPointPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPointPaint.setStrokeWidth(strokeWidth);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getMaxNodes() {
+        return mNodes.length / 2;
+    }
+
+    float getStrokeWidth() {
+        return mLinePaint.getStrokeWidth();
+    }
+
+    /**
+     * 连到下一个节点
+     */
+    void add(float x, float y) {
+        if (2 * mNodeCount >= mNodes.length) {
+            return;
+        }
+        mNodes[2 * mNodeCount] = x;
+        mNodes[2 * mNodeCount + 1] = y;
+        if (mNodeCount > 0) {
+            int offset = 4 * (mNodeCount - 1);
+            mLines[offset] = mNodes[2 * mNodeCount - 2];
+            mLines[offset + 1] = mNodes[2 * mNodeCount - 1];
+            mLines[offset + 2] = x;
+            mLines[offset + 3] = y;
+        }
+        mNodeCount++;
+    }
+
+    void clear() {
+        mNodeCount = 0;
+        if (mCachedNodes > 0 && mCache != null) {
+            mCache.eraseColor(0);
+        }
+        mCachedNodes = 0;
+    }
+
+    /**
+     * 用 paint 的颜色和透明度绘制连线；只有一个节点时与 Path 一样不绘制
+     */
+    void draw(Canvas canvas, Paint paint) {
+        if (mNodeCount < 2) {
+            return;
+        }
+        if (mCache == null && !isCacheDisabled) {
+            try {
+                mCache = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ALPHA_8);
+                mCacheCanvas = new Canvas(mCache);
+                mCachedNodes = 0;
+            } catch (OutOfMemoryError e) {
+                isCacheDisabled = true;
+            }
+        }
+        if (mCache == null) {
+            drawNodes(canvas, 0, paint.getColor(), paint.getAlpha());
+            return;
+        }
+        if (mCachedNodes < mNodeCount) {
+            drawNodes(mCacheCanvas, mCachedNodes, 0xFF000000, 0xFF);
+            mCachedNodes = mNodeCount;
+        }
+        canvas.drawBitmap(mCache, 0, 0, paint);
+    }
+
+    /**
+     * 绘制从 from 开始的节点以及连到它们的线段
+     */
+    private void drawNodes(Canvas canvas, int from, int color, int alpha) {
+        mLinePaint.setColor(color);
+        mLinePaint.setAlpha(alpha);
+        mPointPaint.setColor(color);
+        mPointPaint.setAlpha(alpha);
+        int firstLine = Math.max(0, from - 1);
+        canvas.drawLines(mLines, 4 * firstLine, 4 * (mNodeCount - 1 - firstLine), mLinePaint);
+        canvas.drawPoints(mNodes, 2 * from, 2 * (mNodeCount - from), mPointPaint);
+    }
+
+    /**
+     * 释放缓存，下次绘制时重新创建
+     */
+    void release() {
+        if (mCache != null) {
+            mCache.recycle();
+            mCache = null;
+            mCacheCanvas = null;
+        }
+        mCachedNodes = 0;
+    }
+}
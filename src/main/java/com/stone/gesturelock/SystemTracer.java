@@ -0,0 +1,65 @@
+package com.stone.gesturelock;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+import com.stone.gesturelock.core.GestureTracer;
+import com.stone.gesturelock.core.TraceEventLog;
+
+/**
+ *  把手势面板的跟踪区间输出为 android.os.Trace 区间（API 18 及以上），在 systrace / Perfetto 中
+ *  与系统的 input、draw 等区间对齐显示；可以同时转发给另一个 GestureTracer，例如 TraceEventLog。
+ *
+ *  区间名字是常量字符串，不分配对象。
+ *
+ *  转发给 TraceEventLog 时设置 setThreadIdProvider(KERNEL_THREAD_IDS)，导出的事件才会落在系统跟踪中的同一个线程上。
+ */
+
+public final class SystemTracer extends GestureTracer {
+
+    private static final boolean IS_TRACE_SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    /**
+     * 内核线程id（Process.myTid），与 systrace / Perfetto 中的线程一致
+     */
+    public static final TraceEventLog.ThreadIdProvider KERNEL_THREAD_IDS = new TraceEventLog.ThreadIdProvider() {
+        @Override
+        public long currentThreadId() {
+            return Process.myTid();
+        }
+    };
+
+    private final GestureTracer mNext;
+
+    public SystemTracer() {
+        this(null);
+    }
+
+    /**
+     * @param next 同时转发给它，可以为null
+     */
+    public SystemTracer(GestureTracer next) {
+        this.mNext = next;
+    }
+
+    @Override
+    public void beginSection(int section) {
+        if (IS_TRACE_SUPPORTED) {
+            Trace.beginSection(sectionName(section));
+        }
+        if (mNext != null) {
+            mNext.beginSection(section);
+        }
+    }
+
+    @Override
+    public void endSection(int section) {
+        if (mNext != null) {
+            mNext.endSection(section);
+        }
+        if (IS_TRACE_SUPPORTED) {
+            Trace.endSection();
+        }
+    }
+}
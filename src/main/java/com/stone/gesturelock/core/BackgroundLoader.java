@@ -0,0 +1,55 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  在后台线程中创建较大的只读数据（强度表、黑名单），不占用 PatternVerifier 的比较线程，
+ *  读取大的黑名单时不会推迟解锁比较和答案摘要的计算。
+ *
+ *  单线程、按提交顺序执行，线程空闲一段时间后会退出。
+ */
+
+final class BackgroundLoader {
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GestureLock-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private BackgroundLoader() {
+    }
+
+    static <T> Future<T> submit(Callable<T> task) {
+        return sExecutor.submit(task);
+    }
+
+    /**
+     * 已经完成的 Future，用于已经有缓存的结果或者已经计算好的答案摘要
+     */
+    static <T> Future<T> completed(final T value) {
+        FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return value;
+            }
+        });
+        future.run();
+        return future;
+    }
+}
@@ -0,0 +1,1026 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ *  手势面板的状态机：设置手势（LOCK）、解锁（UNLOCK）、修改手势（MODIFY）三种模式的全部逻辑，
+ *  不依赖 Android，可以直接在 JVM 上测试和跑 benchmark。
+ *
+ *  输入是触点坐标（onTouchDown / onTouchMove / onTouchUp，坐标与 GridHitTester 的几何参数一致），
+ *  输出分两类：
+ *  Callback 告诉界面哪些格子被选中、箭头朝向、成功/失败提示以及何时重置；
+ *  Listener 是给使用者的回调，与 GestureLockViewGroup.OnGestureLockViewListener 相同。
+ *
+ *  成功/失败提示显示完成后需要调用 finishFeedback，引擎才会重置并接受下一次手势。
+ *  除了后台比较的结果和答案摘要计算完成后的保存（都通过 setResultExecutor 投递）外，所有方法都应在同一个线程中调用。
+ */
+
+public class GestureEngine {
+
+    public static final int ACTION_UNDEFINED = 0x000;
+    public static final int ACTION_LOCK = 0x100;
+    public static final int ACTION_UNLOCK = 0x200;
+    public static final int ACTION_MODIFY = 0x300;
+
+    /**
+     * 等待手势
+     */
+    public static final int STATE_IDLE = 0;
+    /**
+     * 手指按下，正在选择格子
+     */
+    public static final int STATE_DRAWING = 1;
+    /**
+     * 手指抬起，正在后台比较
+     */
+    public static final int STATE_VERIFYING = 2;
+    /**
+     * 正在显示成功/失败提示，结束后重置
+     */
+    public static final int STATE_FEEDBACK = 3;
+    /**
+     * 设置或解锁已完成，不再处理触摸
+     */
+    public static final int STATE_DONE = 4;
+    /**
+     * 尝试次数已用完，不再处理触摸
+     */
+    public static final int STATE_NO_MORE_TRY = 5;
+
+    /**
+     * AttemptListener 回调的尝试结果
+     */
+    public static final int ATTEMPT_FIRST_LOCK = 0;
+    public static final int ATTEMPT_SECOND_LOCK_SUCCEEDED = 1;
+    public static final int ATTEMPT_SECOND_LOCK_FAILED = 2;
+    public static final int ATTEMPT_UNLOCK_CORRECT = 3;
+    public static final int ATTEMPT_UNLOCK_ERROR = 4;
+    /**
+     * 设置手势时图案太弱或者在黑名单中，被拒绝
+     */
+    public static final int ATTEMPT_WEAK_PATTERN = 5;
+    /**
+     * 设置手势时强度表或黑名单还在后台准备，无法检查 setMinStrength 和黑名单，第一次绘制被拒绝，需要重新绘制
+     */
+    public static final int ATTEMPT_CHECK_PENDING = 6;
+
+    /**
+     * 成功和失败提示默认的显示时间
+     */
+    public static final long SUCCEEDED_HOLD_MILLIS = 1000L;
+    public static final long FAILED_HOLD_MILLIS = 500L;
+
+    /**
+     * 给使用者的回调
+     */
+    public interface Listener {
+
+        void onFirstLock(int action, Pattern answer);
+
+        void onSecondLockSucceeded(int action, Pattern answer);
+
+        void onSecondLockFailed(int action);
+
+        void onUnlockCorrect(int action, Pattern answer);
+
+        void onUnlockError(int action, Pattern answer, int chances);
+
+        void noMoreTry(int action);
+    }
+
+    /**
+     * 给界面的回调
+     */
+    public interface Callback {
+
+        /**
+         * 选中了一个新的格子
+         *
+         * @param index    格子index
+         * @param previous 上一个选中的格子index，第一个格子时为 GridHitTester.NO_CELL
+         */
+        void onCellSelected(int index, int previous);
+
+        /**
+         * 手指抬起后格子中箭头的角度
+         */
+        void onCellArrow(int index, int degree);
+
+        /**
+         * 显示成功或失败的提示，所有选中的格子都变为对应的状态
+         *
+         * @param succeeded  是否成功
+         * @param holdMillis 提示的显示时间，之后需要调用 finishFeedback
+         */
+        void onFeedback(boolean succeeded, long holdMillis);
+
+        /**
+         * 所有格子恢复为未选中
+         */
+        void onReset();
+
+        void onStateChanged(int state);
+    }
+
+    /**
+     * 设置手势时的图案强度回调
+     */
+    public interface StrengthListener {
+
+        /**
+         * 设置手势的第一次绘制中，每选中一个格子回调一次，strength 会被重复使用，不要保存
+         */
+        void onStrengthChanged(PatternStrength strength);
+
+        /**
+         * 第一次绘制的图案强度低于 setMinStrength 或者在黑名单中，已经显示失败提示，需要重新绘制
+         */
+        void onWeakPattern(int action, PatternStrength strength);
+    }
+
+    /**
+     * 每次尝试（手指抬起后得出结果）的回调，例如转发给审计日志，与 Listener 一起设置才会回调
+     */
+    public interface AttemptListener {
+
+        /**
+         * @param result   ATTEMPT_*
+         * @param snapshot 这次绘制的图案，只在回调中有效；回调之后还要使用（保存或交给其他线程）时先 retain，用完后 release
+         */
+        void onAttempt(int action, int result, PatternSnapshot snapshot);
+    }
+
+    /**
+     * 直接在比较线程中处理结果
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Callback mCallback;
+    private Listener mListener;
+    private StrengthListener mStrengthListener;
+    private AttemptListener mAttemptListener;
+    /**
+     * 跟踪区间，为null时不跟踪
+     */
+    private GestureTracer mTracer;
+    private Executor mResultExecutor = DIRECT;
+
+    private final GridHitTester mHitTester = new GridHitTester();
+    /**
+     * 保存用户选中的格子id
+     */
+    private final PatternSelection mSelection = new PatternSelection();
+    /**
+     * 每个边上的格子个数
+     */
+    private int mCount;
+    /**
+     * 当前大小的网格中任意两个格子之间经过的格子
+     */
+    private GridTopology mTopology;
+    /**
+     * 是否自动选中新格子与上一个格子之间的连线经过的未选中格子（与系统图案锁相同）
+     */
+    private boolean isSelectBetween = false;
+    /**
+     * 是否计算相邻两个触点之间的线段经过的格子，快速滑动时不会漏选
+     */
+    private boolean isSegmentHitTest = false;
+    /**
+     * 保存线段经过的格子index
+     */
+    private int[] mSegmentCells = new int[0];
+    /**
+     * 上一个触点的位置，是否有效
+     */
+    private int mLastTouchX;
+    private int mLastTouchY;
+    private boolean hasLastTouch = false;
+
+    private int mAction = ACTION_UNDEFINED;
+    private int mState = STATE_IDLE;
+    private boolean isFirstTime = true;
+    private boolean isUnlocked = false;
+    private boolean isActionDone = false;
+    private boolean isShowingFeedback = false;
+    /**
+     * 剩余尝试次数
+     */
+    private int mTryTimes = 3;
+    /**
+     * 尝试次数用完的时间（毫秒），0表示没有被锁定
+     */
+    private long mLockoutTime;
+
+    /**
+     * 设置手势时允许的最低强度（PatternStrength.LEVEL_*），LEVEL_WEAK 表示不限制
+     */
+    private int mMinStrength = PatternStrength.LEVEL_WEAK;
+    /**
+     * 计算强度的表按格子个数缓存，需要时才在后台创建，创建完成前不计算强度
+     */
+    private Future<PatternStrengthMeter> mStrengthMeterFuture;
+    private PatternStrengthMeter mStrengthMeter;
+    /**
+     * mStrengthMeterFuture 或 mStrengthMeter 对应的格子个数，0表示没有
+     */
+    private int mStrengthMeterCount;
+    private final PatternStrength mStrength = new PatternStrength();
+    /**
+     * 常见图案的黑名单，在后台读取，读取完成前不检查
+     */
+    private Future<PatternBlacklist> mBlacklistFuture;
+    private PatternBlacklist mBlacklist;
+    /**
+     * 当前的选择在 mBlacklistNode 所属的黑名单中的节点，每选中一个格子走一步
+     */
+    private PatternBlacklist mBlacklistUsed;
+    private int mBlacklistNode = PatternBlacklist.NO_NODE;
+
+    /**
+     * 设置手势时第一次绘制的图案，第二次确认成功后清除，之后只保留 mAnswerHash
+     */
+    private Pattern mFirstAnswer;
+    /**
+     * 答案的加盐摘要，在后台线程中计算，内存中不保存答案的明文
+     */
+    private Future<PatternHash> mAnswerHash;
+    /**
+     * 正在后台比较的图案，比较完成前不再处理触摸
+     */
+    private Pattern mVerifyCandidate;
+    /**
+     * 正在后台比较的图案的快照，设置了 AttemptListener 时才有
+     */
+    private PatternSnapshot mVerifySnapshot;
+    private Future<?> mVerifyFuture;
+    private boolean isVerifying = false;
+    /**
+     * 每次提交比较时加一，用于丢弃过期（已取消）的比较结果
+     */
+    private int mVerifyToken;
+    /**
+     * 保存答案摘要和剩余尝试次数，为null时不保存
+     */
+    private GestureLockStore mStore;
+    /**
+     * setStore 恢复了保存的剩余尝试次数，之后 setTryTimes 只能减少它
+     */
+    private boolean isTryTimesRestored = false;
+
+    public GestureEngine(Callback callback) {
+        this.mCallback = callback;
+    }
+
+    public void setListener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * 在检查答案、处理比较结果和重置时输出跟踪区间
+     *
+     * @param tracer 为null时关闭
+     */
+    public void setTracer(GestureTracer tracer) {
+        this.mTracer = tracer;
+    }
+
+    public void setAttemptListener(AttemptListener listener) {
+        this.mAttemptListener = listener;
+    }
+
+    /**
+     * 设置图案强度回调，在后台创建当前大小的强度表（4*4 时约几十毫秒），创建完成前不回调
+     */
+    public void setStrengthListener(StrengthListener listener) {
+        this.mStrengthListener = listener;
+        updateStrengthMeter();
+    }
+
+    /**
+     * 设置手势时允许的最低强度，低于它的图案第一次绘制时就被拒绝。
+     * 强度表在后台创建（setCount 之后），创建完成前第一次绘制的图案无法检查，也会被拒绝（ATTEMPT_CHECK_PENDING），
+     * 不会放过弱图案
+     *
+     * @param level PatternStrength.LEVEL_*
+     */
+    public void setMinStrength(int level) {
+        this.mMinStrength = level;
+        updateStrengthMeter();
+    }
+
+    public int getMinStrength() {
+        return mMinStrength;
+    }
+
+    /**
+     * 设置常见图案的黑名单，设置手势时拒绝其中的图案（回调 onWeakPattern）。
+     * 黑名单通常较大，由 PatternBlacklist.readAsync 在后台读取，读取完成前第一次绘制的图案都被拒绝
+     * （ATTEMPT_CHECK_PENDING）；读取失败或者大小与 getCount 不同时不检查
+     *
+     * @param blacklist 为null时不检查
+     */
+    public void setBlacklist(Future<PatternBlacklist> blacklist) {
+        this.mBlacklistFuture = blacklist;
+        this.mBlacklist = null;
+        this.mBlacklistUsed = null;
+        updateStrengthMeter();
+    }
+
+    /**
+     * 已经读取完成并且与当前大小相同的黑名单，没有时返回null，不会阻塞
+     */
+    private PatternBlacklist resolveBlacklist() {
+        if (mBlacklistFuture != null && mBlacklistFuture.isDone()) {
+            Future<PatternBlacklist> future = mBlacklistFuture;
+            mBlacklistFuture = null;
+            try {
+                mBlacklist = future.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                // 读取失败时不检查
+                mBlacklist = null;
+            }
+        }
+        return mBlacklist != null && mBlacklist.getCount() == mCount ? mBlacklist : null;
+    }
+
+    /**
+     * 选中一个格子后在黑名单中走一步；新的手势或者黑名单刚读取完成时从头走一遍
+     */
+    private void updateBlacklistNode() {
+        PatternBlacklist blacklist = resolveBlacklist();
+        if (blacklist != null && blacklist == mBlacklistUsed && mSelection.size() > 1) {
+            mBlacklistNode = blacklist.next(mBlacklistNode, mSelection.last());
+            return;
+        }
+        mBlacklistUsed = blacklist;
+        mBlacklistNode = PatternBlacklist.NO_NODE;
+        if (blacklist != null) {
+            int node = blacklist.root();
+            for (int i = 0; i < mSelection.size(); i++) {
+                node = blacklist.next(node, mSelection.get(i));
+            }
+            mBlacklistNode = node;
+        }
+    }
+
+    private boolean isBlacklisted() {
+        if (resolveBlacklist() != mBlacklistUsed) {
+            updateBlacklistNode();
+        }
+        return mBlacklistUsed != null && mBlacklistUsed.isTerminal(mBlacklistNode);
+    }
+
+    private void updateStrengthMeter() {
+        boolean needed = mStrengthListener != null || mMinStrength > PatternStrength.LEVEL_WEAK
+                || mBlacklistFuture != null || mBlacklist != null;
+        if (!needed || mCount <= 0) {
+            mStrengthMeterFuture = null;
+            mStrengthMeter = null;
+            mStrengthMeterCount = 0;
+        } else if (mStrengthMeterCount != mCount) {
+            // 界面线程中创建 4*4 的表需要几十毫秒，在后台创建，与黑名单一样在完成前不检查
+            mStrengthMeterFuture = PatternStrengthMeter.ofAsync(mCount);
+            mStrengthMeter = null;
+            mStrengthMeterCount = mCount;
+        }
+    }
+
+    /**
+     * 已经创建完成的强度表，没有时返回null，不会阻塞
+     */
+    private PatternStrengthMeter resolveStrengthMeter() {
+        if (mStrengthMeterFuture != null && mStrengthMeterFuture.isDone()) {
+            Future<PatternStrengthMeter> future = mStrengthMeterFuture;
+            mStrengthMeterFuture = null;
+            try {
+                mStrengthMeter = future.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                mStrengthMeter = null;
+            }
+        }
+        return mStrengthMeter;
+    }
+
+    /**
+     * 设置处理后台比较结果的线程，默认直接在后台线程中处理
+     */
+    public void setResultExecutor(Executor executor) {
+        this.mResultExecutor = executor == null ? DIRECT : executor;
+    }
+
+    /**
+     * 设置每个边上的格子个数，会清空当前的选择；个数变化时取消正在进行的比较并重新开始设置手势。
+     * 答案的摘要包括格子个数，在新的网格上不可能匹配，因此个数变化时同时清除答案（包括 setStore 保存的），
+     * 需要用 setAnswer 或设置手势（ACTION_LOCK）重新设置
+     */
+    public void setCount(int count) {
+        boolean clearAnswer = false;
+        if (count != mCount) {
+            cancelVerify();
+            isFirstTime = true;
+            mFirstAnswer = null;
+            clearAnswer = mAnswerHash != null;
+            mAnswerHash = null;
+        }
+        this.mCount = count;
+        mSelection.setCellCount(count * count);
+        mTopology = GridTopology.of(count);
+        if (mSegmentCells.length < count * count) {
+            mSegmentCells = new int[count * count];
+        }
+        updateStrengthMeter();
+        if (clearAnswer) {
+            saveState();
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 命中判断使用的网格几何参数，由界面在布局后设置
+     */
+    public GridHitTester getHitTester() {
+        return mHitTester;
+    }
+
+    public void setSegmentHitTest(boolean segmentHitTest) {
+        this.isSegmentHitTest = segmentHitTest;
+    }
+
+    /**
+     * 设置是否自动选中新格子与上一个格子之间的连线经过的未选中格子，例如3*3中从1连到3时选中2
+     */
+    public void setSelectBetween(boolean selectBetween) {
+        this.isSelectBetween = selectBetween;
+    }
+
+    public boolean isSelectBetween() {
+        return isSelectBetween;
+    }
+
+    public void setAction(int action) {
+        this.mAction = action;
+        updateState();
+    }
+
+    public int getAction() {
+        return mAction;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * 当前选中的格子
+     */
+    public PatternView getSelection() {
+        return mSelection;
+    }
+
+    public int getTryTimes() {
+        return mTryTimes;
+    }
+
+    public long getLockoutTime() {
+        return mLockoutTime;
+    }
+
+    /**
+     * 设置剩余尝试次数。setStore 恢复了保存的次数后只能减少，启动时按配置设置的次数不会覆盖恢复的次数，
+     * 需要恢复次数时（例如用户用密码重新验证了身份）调用 resetTryTimes
+     */
+    public void setTryTimes(int tryTimes) {
+        if (isTryTimesRestored && tryTimes >= mTryTimes) {
+            return;
+        }
+        resetTryTimes(tryTimes);
+    }
+
+    /**
+     * 设置剩余尝试次数，覆盖 setStore 恢复的次数
+     */
+    public void resetTryTimes(int tryTimes) {
+        this.mTryTimes = tryTimes;
+        if (tryTimes > 0) {
+            this.mLockoutTime = 0;
+        }
+        saveState();
+        updateState();
+    }
+
+    /**
+     * 是否处理触摸：已完成、正在比较、尝试次数用完或者没有设置模式时都不处理
+     */
+    public boolean isAcceptingTouch() {
+        return !(isActionDone || isVerifying || mTryTimes == 0 || mAction == ACTION_UNDEFINED);
+    }
+
+    public void onTouchDown(int x, int y) {
+        if (!isAcceptingTouch()) {
+            return;
+        }
+        // 上一次的提示还没结束时立即重置，不会在新的手势中途被清空
+        if (isShowingFeedback) {
+            finishFeedback();
+        }
+        mLastTouchX = x;
+        mLastTouchY = y;
+        hasLastTouch = true;
+        updateState();
+    }
+
+    /**
+     * 处理一个触点，选中触点（或与上一个触点之间的线段）经过的格子
+     */
+    public void onTouchMove(int x, int y) {
+        if (!isAcceptingTouch()) {
+            return;
+        }
+        if (isSegmentHitTest && hasLastTouch) {
+            int n = mHitTester.cellsOnSegment(mLastTouchX, mLastTouchY, x, y, mSegmentCells);
+            for (int i = 0; i < n; i++) {
+                selectCell(mSegmentCells[i]);
+            }
+        } else {
+            int index = mHitTester.hitTest(x, y);
+            if (index != GridHitTester.NO_CELL) {
+                selectCell(index);
+            }
+        }
+        mLastTouchX = x;
+        mLastTouchY = y;
+        hasLastTouch = true;
+        updateState();
+    }
+
+    public void onTouchUp() {
+        if (!isAcceptingTouch()) {
+            return;
+        }
+        hasLastTouch = false;
+        if (mListener != null && mSelection.size() > 0) {
+            GestureTracer tracer = mTracer;
+            if (tracer != null) {
+                tracer.beginSection(GestureTracer.SECTION_CHECK_ANSWER);
+            }
+            switch (mAction) {
+                case ACTION_LOCK:
+                    enroll();
+                    break;
+                case ACTION_UNLOCK:
+                    //后台比较，结果在onVerifyResult中处理
+                    verify();
+                    break;
+                case ACTION_MODIFY:
+                    if (!isUnlocked) {
+                        verify();
+                    } else {
+                        enroll();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (tracer != null) {
+                tracer.endSection(GestureTracer.SECTION_CHECK_ANSWER);
+            }
+        }
+        // 计算每个元素中箭头需要旋转的角度
+        for (int i = 0; i + 1 < mSelection.size(); i++) {
+            int index = mSelection.get(i) - 1;
+            mCallback.onCellArrow(index, arrowDegree(mCount, index, mSelection.get(i + 1) - 1));
+        }
+        updateState();
+    }
+
+    /**
+     * 从一个格子指向另一个格子的箭头角度，0 为朝上，顺时针
+     */
+    public static int arrowDegree(int count, int from, int to) {
+        int dx = to % count - from % count;
+        int dy = to / count - from / count;
+        return (int) Math.toDegrees(Math.atan2(dy, dx)) + 90;
+    }
+
+    /**
+     * 成功/失败提示显示完成，尝试次数用完或者已经完成时保持最后的状态，否则重置
+     */
+    public void finishFeedback() {
+        if (!isShowingFeedback) {
+            return;
+        }
+        isShowingFeedback = false;
+        if (shouldResetAfterFeedback()) {
+            reset();
+        }
+        updateState();
+    }
+
+    /**
+     * 当前的提示结束后是否会重置
+     */
+    public boolean shouldResetAfterFeedback() {
+        return mTryTimes != 0 && !isActionDone;
+    }
+
+    /**
+     * 做一些必要的重置
+     */
+    public void reset() {
+        GestureTracer tracer = mTracer;
+        if (tracer != null) {
+            tracer.beginSection(GestureTracer.SECTION_RESET);
+        }
+        mSelection.clear();
+        isShowingFeedback = false;
+        mCallback.onReset();
+        updateState();
+        if (tracer != null) {
+            tracer.endSection(GestureTracer.SECTION_RESET);
+        }
+    }
+
+    /**
+     * 选中格子，已选中过的格子忽略；isSelectBetween 时先按顺序选中与上一个格子之间经过的格子
+     */
+    private void selectCell(int index) {
+        if (index >= mCount * mCount) {
+            // 命中判断的几何参数还是之前更大的网格
+            return;
+        }
+        if (isSelectBetween && !mSelection.isEmpty() && !mSelection.contains(index + 1)) {
+            int last = mSelection.last() - 1;
+            int between = mTopology.betweenCount(last, index);
+            for (int i = 0; i < between; i++) {
+                addCell(mTopology.between(last, index, i));
+            }
+        }
+        addCell(index);
+    }
+
+    private void addCell(int index) {
+        if (mSelection.add(index + 1)) {
+            int size = mSelection.size();
+            mCallback.onCellSelected(index, size > 1 ? mSelection.get(size - 2) - 1 : GridHitTester.NO_CELL);
+            if (mStrengthMeterCount != 0 && isEnrollingFirst()) {
+                // 强度表还没创建完成时也要在黑名单中走一步，完成后的检查使用正确的节点
+                updateBlacklistNode();
+                if (mStrengthListener != null && resolveStrengthMeter() != null) {
+                    analyzeStrength();
+                    mStrengthListener.onStrengthChanged(mStrength);
+                }
+            }
+        }
+    }
+
+    /**
+     * 设置了最低强度或黑名单，但强度表或黑名单还在后台准备，现在无法检查；准备失败时不算
+     */
+    private boolean isStrengthCheckPending() {
+        boolean hasBlacklist = mBlacklistFuture != null || mBlacklist != null;
+        if (mMinStrength <= PatternStrength.LEVEL_WEAK && !hasBlacklist) {
+            return false;
+        }
+        if (resolveStrengthMeter() == null) {
+            return mStrengthMeterFuture != null;
+        }
+        resolveBlacklist();
+        return mBlacklistFuture != null;
+    }
+
+    private void analyzeStrength() {
+        mStrengthMeter.analyze(mSelection, mStrength);
+        if (isBlacklisted()) {
+            mStrength.markBlacklisted();
+        }
+    }
+
+    /**
+     * 是否正在设置手势的第一次绘制
+     */
+    private boolean isEnrollingFirst() {
+        return isFirstTime && (mAction == ACTION_LOCK || (mAction == ACTION_MODIFY && isUnlocked));
+    }
+
+    /**
+     * 设置（或修改）手势：第一次记录，第二次确认
+     */
+    private void enroll() {
+        if (isFirstTime) {
+            if (isStrengthCheckPending()) {
+                // 还不能检查强度和黑名单，拒绝而不是放过可能的弱图案
+                feedback(false);
+                dispatchAttempt(ATTEMPT_CHECK_PENDING, null);
+                return;
+            }
+            if (resolveStrengthMeter() != null) {
+                analyzeStrength();
+                if (mStrength.isBlacklisted() || mStrength.getLevel() < mMinStrength) {
+                    feedback(false);
+                    if (mStrengthListener != null) {
+                        mStrengthListener.onWeakPattern(mAction, mStrength);
+                    }
+                    dispatchAttempt(ATTEMPT_WEAK_PATTERN, null);
+                    return;
+                }
+            }
+            isFirstTime = false;
+            mFirstAnswer = Pattern.of(mCount, mSelection);
+            feedback(true);
+            mListener.onFirstLock(mAction, mFirstAnswer);
+            dispatchAttempt(ATTEMPT_FIRST_LOCK, null);
+        } else if (checkLockAnswer()) {
+            isActionDone = true;
+            Pattern answer = mFirstAnswer;
+            mFirstAnswer = null;
+            setAnswer(answer);
+            feedback(true);
+            mListener.onSecondLockSucceeded(mAction, answer);
+            dispatchAttempt(ATTEMPT_SECOND_LOCK_SUCCEEDED, null);
+        } else {
+            feedback(false);
+            mListener.onSecondLockFailed(mAction);
+            dispatchAttempt(ATTEMPT_SECOND_LOCK_FAILED, null);
+        }
+    }
+
+    /**
+     * 回调 AttemptListener，回调之后释放快照
+     *
+     * @param snapshot 为null时使用当前的选择
+     */
+    private void dispatchAttempt(int result, PatternSnapshot snapshot) {
+        if (mAttemptListener == null) {
+            if (snapshot != null) {
+                snapshot.release();
+            }
+            return;
+        }
+        if (snapshot == null) {
+            snapshot = PatternSnapshot.obtain(mCount, mSelection);
+        }
+        try {
+            mAttemptListener.onAttempt(mAction, result, snapshot);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    private boolean checkLockAnswer() {
+        return mFirstAnswer != null && mFirstAnswer.matches(mSelection);
+    }
+
+    private void feedback(boolean succeeded) {
+        isShowingFeedback = true;
+        mCallback.onFeedback(succeeded, succeeded ? SUCCEEDED_HOLD_MILLIS : FAILED_HOLD_MILLIS);
+    }
+
+    /**
+     * 在后台检查用户绘制的手势是否正确，PBKDF2很慢，不能在界面线程中计算。
+     *
+     * 比较完成后先在比较线程中按已经消耗了这次尝试保存记录，记录写入文件后写入线程才把结果交给界面线程：
+     * 看到失败提示后立即杀掉进程也不能恢复尝试次数。比较线程和写入线程都不互相等待。
+     */
+    private void verify() {
+        final int token = ++mVerifyToken;
+        mVerifyCandidate = Pattern.of(mCount, mSelection);
+        mVerifySnapshot = mAttemptListener != null ? PatternSnapshot.obtain(mCount, mSelection) : null;
+        isVerifying = true;
+        final GestureLockStore store = mStore;
+        final Future<PatternHash> answerHash = mAnswerHash;
+        final int count = mCount;
+        final int tryTimes = mTryTimes - 1;
+        final long lockoutTime = mLockoutTime;
+        mVerifyFuture = PatternVerifier.verify(answerHash, mVerifyCandidate, new PatternVerifier.Callback() {
+            @Override
+            public void onVerified(final int result) {
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        mResultExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onVerifyResult(token, result);
+                            }
+                        });
+                    }
+                };
+                if (store != null && result != PatternVerifier.RESULT_ERROR && save(store, answerHash, count,
+                        tryTimes, tryTimes == 0 ? System.currentTimeMillis() : lockoutTime)) {
+                    store.afterWrites(deliver);
+                } else {
+                    deliver.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * 后台比较完成，回调并显示成功或失败
+     */
+    private void onVerifyResult(int token, int result) {
+        if (token != mVerifyToken || !isVerifying) {
+            // 已经被取消，比较线程可能在取消之后才保存了减少的次数，没有新的比较时再保存一次当前的次数
+            if (!isVerifying) {
+                saveState();
+            }
+            return;
+        }
+        GestureTracer tracer = mTracer;
+        if (tracer == null) {
+            handleVerifyResult(result);
+            return;
+        }
+        tracer.beginSection(GestureTracer.SECTION_VERIFY_RESULT);
+        try {
+            handleVerifyResult(result);
+        } finally {
+            tracer.endSection(GestureTracer.SECTION_VERIFY_RESULT);
+        }
+    }
+
+    private void handleVerifyResult(int result) {
+        isVerifying = false;
+        mVerifyFuture = null;
+        Pattern candidate = mVerifyCandidate;
+        mVerifyCandidate = null;
+        PatternSnapshot snapshot = mVerifySnapshot;
+        mVerifySnapshot = null;
+        if (result == PatternVerifier.RESULT_ERROR || mListener == null) {
+            // 无法比较时不消耗尝试次数
+            if (snapshot != null) {
+                snapshot.release();
+            }
+            saveState();
+            reset();
+            return;
+        }
+        boolean matched = result == PatternVerifier.RESULT_MATCHED;
+        if (matched) {
+            if (mAction == ACTION_UNLOCK) {
+                isActionDone = true;
+            } else {
+                isUnlocked = true;
+            }
+        }
+        this.mTryTimes--;
+        if (this.mTryTimes == 0) {
+            mLockoutTime = System.currentTimeMillis();
+        }
+        feedback(matched);
+        if (matched) {
+            mListener.onUnlockCorrect(mAction, candidate);
+        } else {
+            mListener.onUnlockError(mAction, candidate, mTryTimes + 1);
+        }
+        dispatchAttempt(matched ? ATTEMPT_UNLOCK_CORRECT : ATTEMPT_UNLOCK_ERROR, snapshot);
+        saveState();
+        if (this.mTryTimes == 0) {
+            mListener.noMoreTry(mAction);
+        }
+        updateState();
+    }
+
+    /**
+     * 取消正在进行的后台比较，丢弃比较结果
+     */
+    public void cancelVerify() {
+        mVerifyToken++;
+        if (mVerifyFuture != null) {
+            mVerifyFuture.cancel(true);
+            mVerifyFuture = null;
+        }
+        mVerifyCandidate = null;
+        if (mVerifySnapshot != null) {
+            mVerifySnapshot.release();
+            mVerifySnapshot = null;
+        }
+        if (isVerifying) {
+            isVerifying = false;
+            // 结果被丢弃，覆盖比较线程可能已经保存的减少后的次数
+            saveState();
+            reset();
+        }
+    }
+
+    /**
+     * 设置答案，在后台计算摘要
+     */
+    public void setAnswer(Pattern answer) {
+        if (answer == null || answer.size() == 0) {
+            return;
+        }
+        // 摘要计算完成前不保存记录（见 saveState），完成后回到处理结果的线程保存
+        this.mAnswerHash = PatternVerifier.hash(answer, new Runnable() {
+            @Override
+            public void run() {
+                mResultExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveState();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 设置之前保存的答案摘要
+     */
+    public void setAnswerHash(PatternHash answerHash) {
+        if (answerHash == null) {
+            return;
+        }
+        this.mAnswerHash = BackgroundLoader.completed(answerHash);
+        saveState();
+    }
+
+    /**
+     * 设置持久化存储，立即读取之前保存的答案摘要和剩余尝试次数，恢复后 setTryTimes 不会再增加剩余次数
+     *
+     * @param store 为null时不再保存
+     */
+    public void setStore(GestureLockStore store) {
+        this.mStore = store;
+        if (store == null) {
+            return;
+        }
+        GestureLockStore.Record record = store.load();
+        if (record == null) {
+            saveState();
+            return;
+        }
+        if (record.getHash() != null && record.getCount() == mCount) {
+            this.mAnswerHash = BackgroundLoader.completed(record.getHash());
+        }
+        this.mTryTimes = record.getTryTimes();
+        this.mLockoutTime = record.getLockoutTime();
+        this.isTryTimesRestored = true;
+        updateState();
+    }
+
+    /**
+     * 在后台保存答案摘要和剩余尝试次数
+     */
+    private void saveState() {
+        if (mStore != null) {
+            save(mStore, mAnswerHash, mCount, mTryTimes, mLockoutTime);
+        }
+    }
+
+    /**
+     * 答案摘要已经计算完成时保存记录。还在计算时不保存，写入线程不能等待比较线程（比较线程会等待写入），
+     * 计算完成后 setAnswer 会再保存一次；计算失败时保留原来的记录
+     *
+     * @return 是否提交了写入
+     */
+    private static boolean save(GestureLockStore store, Future<PatternHash> answerHash, int count, int tryTimes,
+                                long lockoutTime) {
+        PatternHash hash = null;
+        if (answerHash != null) {
+            if (!answerHash.isDone()) {
+                return false;
+            }
+            try {
+                hash = answerHash.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+        store.save(new GestureLockStore.Record(hash, count, tryTimes, lockoutTime));
+        return true;
+    }
+
+    private void updateState() {
+        int state;
+        if (mTryTimes == 0) {
+            state = STATE_NO_MORE_TRY;
+        } else if (isActionDone) {
+            state = STATE_DONE;
+        } else if (isVerifying) {
+            state = STATE_VERIFYING;
+        } else if (isShowingFeedback) {
+            state = STATE_FEEDBACK;
+        } else if (hasLastTouch || mSelection.size() > 0) {
+            state = STATE_DRAWING;
+        } else {
+            state = STATE_IDLE;
+        }
+        if (state != mState) {
+            mState = state;
+            mCallback.onStateChanged(state);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.stone.gesturelock.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ *  保存答案摘要、盐、剩余尝试次数和锁定时间的二进制记录文件。
+ *
+ *  文件格式（大端）：
+ *  magic(4) version(1) count(1) iterations(4) saltLength(1) salt hashLength(1) hash tryTimes(4) lockoutTime(8) crc32(4)
+ *  没有答案时 iterations、saltLength、hashLength 都为0。
+ *
+ *  写入时先写临时文件并 fsync，再 rename 覆盖原文件，进程在任何时候被杀掉都只会留下旧的或新的完整记录。
+ *  写入在后台线程中进行，连续多次 save 只会写最后一次，写入线程不等待任何其他线程；
+ *  读取只有一次小文件读，可以在第一次绘制前同步调用。
+ */
+
+public class GestureLockStore {
+
+    private static final int MAGIC = 0x474C5331; // "GLS1"
+    private static final int VERSION = 1;
+    /**
+     * 记录文件的最大长度，超出的视为损坏
+     */
+    private static final int MAX_LENGTH = 1024;
+
+    private static final ExecutorService sWriter = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GestureLock-store");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        ((ThreadPoolExecutor) sWriter).allowCoreThreadTimeOut(true);
+    }
+
+    private final File mFile;
+    private final File mTmpFile;
+
+    /**
+     * 等待写入的最新记录，为null时没有等待的写入
+     */
+    private Record mPending;
+    private final Object mLock = new Object();
+
+    public GestureLockStore(File file) {
+        this.mFile = file;
+        this.mTmpFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * 一条记录
+     */
+    public static final class Record {
+
+        private final PatternHash mHash;
+        private final int mCount;
+        private final int mTryTimes;
+        private final long mLockoutTime;
+
+        /**
+         * @param hash        答案摘要，没有答案时为null
+         * @param count       每个边上的格子个数
+         * @param tryTimes    剩余尝试次数
+         * @param lockoutTime 尝试次数用完的时间（毫秒），没有锁定时为0
+         */
+        public Record(PatternHash hash, int count, int tryTimes, long lockoutTime) {
+            this.mHash = hash;
+            this.mCount = count;
+            this.mTryTimes = tryTimes;
+            this.mLockoutTime = lockoutTime;
+        }
+
+        public PatternHash getHash() {
+            return mHash;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getTryTimes() {
+            return mTryTimes;
+        }
+
+        public long getLockoutTime() {
+            return mLockoutTime;
+        }
+    }
+
+    /**
+     * 读取记录
+     *
+     * @return 文件不存在或已损坏时返回null
+     */
+    public Record load() {
+        if (!mFile.isFile() || mFile.length() > MAX_LENGTH) {
+            return null;
+        }
+        byte[] data = new byte[(int) mFile.length()];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    return null;
+                }
+                read += n;
+            }
+            return decode(data);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 在后台线程写入记录，未写入的旧记录会被覆盖
+     */
+    public void save(Record record) {
+        synchronized (mLock) {
+            boolean scheduled = mPending != null;
+            mPending = record;
+            if (scheduled) {
+                return;
+            }
+        }
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Record pending;
+                synchronized (mLock) {
+                    pending = mPending;
+                    mPending = null;
+                }
+                if (pending != null) {
+                    try {
+                        write(pending);
+                    } catch (IOException e) {
+                        // 写入失败时保留原来的文件
+                        mTmpFile.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 之前提交的写入全部完成后在写入线程中执行 action，不阻塞调用的线程
+     */
+    public void afterWrites(Runnable action) {
+        sWriter.execute(action);
+    }
+
+    /**
+     * 等待之前提交的写入全部完成
+     */
+    public void flush() throws InterruptedException {
+        Future<?> done = sWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 同步写入记录：写临时文件、fsync、rename
+     */
+    public void write(Record record) throws IOException {
+        byte[] data = encode(record);
+        FileOutputStream out = new FileOutputStream(mTmpFile);
+        try {
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!mTmpFile.renameTo(mFile)) {
+            throw new IOException("rename " + mTmpFile + " failed");
+        }
+    }
+
+    public void delete() {
+        synchronized (mLock) {
+            mPending = null;
+        }
+        mFile.delete();
+        mTmpFile.delete();
+    }
+
+    static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(record.getCount());
+        PatternHash hash = record.getHash();
+        if (hash != null) {
+            byte[] salt = hash.getSalt();
+            byte[] value = hash.getHash();
+            out.writeInt(hash.getIterations());
+            out.writeByte(salt.length);
+            out.write(salt);
+            out.writeByte(value.length);
+            out.write(value);
+        } else {
+            out.writeInt(0);
+            out.writeByte(0);
+            out.writeByte(0);
+        }
+        out.writeInt(record.getTryTimes());
+        out.writeLong(record.getLockoutTime());
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Record decode(byte[] data) throws IOException {
+        if (data.length < 4) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            return null;
+        }
+        int count = in.readUnsignedByte();
+        int iterations = in.readInt();
+        byte[] salt = new byte[in.readUnsignedByte()];
+        in.readFully(salt);
+        byte[] value = new byte[in.readUnsignedByte()];
+        in.readFully(value);
+        int tryTimes = in.readInt();
+        long lockoutTime = in.readLong();
+        if (in.readInt() != (int) crc.getValue()) {
+            return null;
+        }
+        PatternHash hash = iterations > 0 && value.length > 0 ? new PatternHash(salt, iterations, value) : null;
+        return new Record(hash, count, tryTimes, lockoutTime);
+    }
+
+    private static void closeQuietly(FileInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  手势面板的性能统计（可选），通过 GestureLockViewGroup.setMetrics 打开。
+ *
+ *  界面线程记录：每个触摸事件的处理时间、输入到绘制的延迟、每帧的绘制时间，
+ *  以及处理的触点、选中的格子、绘制的格子和连线段数。
+ *  所有数据都在预先分配的直方图和计数器中，记录时不分配对象；
+ *  采集方可以在任意线程调用 snapshot（复制到自己的实例中）或 snapshotAndReset 轮询。
+ */
+
+public final class GestureMetrics {
+
+    private final LatencyHistogram mTouchTime = new LatencyHistogram();
+    private final LatencyHistogram mInputLatency = new LatencyHistogram();
+    private final LatencyHistogram mDrawTime = new LatencyHistogram();
+
+    private long mTouchEvents;
+    private long mTouchSamples;
+    private long mCellsSelected;
+    private long mFrames;
+    private long mCellsDrawn;
+    private long mSegmentsDrawn;
+
+    /**
+     * snapshot 的中转，第一次 snapshot 时创建，只在持有 mSnapshotLock 时使用
+     */
+    private GestureMetrics mScratch;
+    private final Object mSnapshotLock = new Object();
+
+    /**
+     * 处理完一个触摸事件
+     *
+     * @param nanos   处理时间
+     * @param samples 事件中的触点个数（包括历史触点）
+     */
+    public synchronized void recordTouchEvent(long nanos, int samples) {
+        mTouchTime.record(nanos);
+        mTouchEvents++;
+        mTouchSamples += samples;
+    }
+
+    public synchronized void recordCellSelected() {
+        mCellsSelected++;
+    }
+
+    /**
+     * 绘制完一帧
+     *
+     * @param drawNanos         绘制时间
+     * @param inputLatencyNanos 最早一个还未绘制的触摸事件到这次绘制的时间，没有时为负数
+     * @param cells             绘制的格子个数
+     * @param segments          绘制的连线段数（包括指引线）
+     */
+    public synchronized void recordFrame(long drawNanos, long inputLatencyNanos, int cells, int segments) {
+        mDrawTime.record(drawNanos);
+        if (inputLatencyNanos >= 0) {
+            mInputLatency.record(inputLatencyNanos);
+        }
+        mFrames++;
+        mCellsDrawn += cells;
+        mSegmentsDrawn += segments;
+    }
+
+    /**
+     * 每个触摸事件的处理时间（纳秒）
+     */
+    public LatencyHistogram getTouchTime() {
+        return mTouchTime;
+    }
+
+    /**
+     * MotionEvent.getEventTime 到绘制的延迟（纳秒，精度为毫秒）
+     */
+    public LatencyHistogram getInputLatency() {
+        return mInputLatency;
+    }
+
+    /**
+     * 每帧 dispatchDraw 的时间（纳秒）
+     */
+    public LatencyHistogram getDrawTime() {
+        return mDrawTime;
+    }
+
+    public long getTouchEvents() {
+        return mTouchEvents;
+    }
+
+    public long getTouchSamples() {
+        return mTouchSamples;
+    }
+
+    public long getCellsSelected() {
+        return mCellsSelected;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getCellsDrawn() {
+        return mCellsDrawn;
+    }
+
+    public long getSegmentsDrawn() {
+        return mSegmentsDrawn;
+    }
+
+    /**
+     * 复制当前的统计数据到 target，之后可以在 target 上读取而不影响记录
+     */
+    public void snapshot(GestureMetrics target) {
+        copy(target, false);
+    }
+
+    /**
+     * 复制当前的统计数据到 target 并清空
+     */
+    public void snapshotAndReset(GestureMetrics target) {
+        copy(target, true);
+    }
+
+    /**
+     * 先持有自己的锁复制到 mScratch，再持有 target 的锁从 mScratch 复制过去，不同时持有两个实例的锁，
+     * a.snapshot(b) 和 b.snapshot(a) 同时调用也不会死锁
+     */
+    private void copy(GestureMetrics target, boolean reset) {
+        if (target == this) {
+            if (reset) {
+                reset();
+            }
+            return;
+        }
+        synchronized (mSnapshotLock) {
+            if (mScratch == null) {
+                mScratch = new GestureMetrics();
+            }
+            synchronized (this) {
+                copyTo(mScratch);
+                if (reset) {
+                    reset();
+                }
+            }
+            synchronized (target) {
+                mScratch.copyTo(target);
+            }
+        }
+    }
+
+    private void copyTo(GestureMetrics target) {
+        mTouchTime.copyTo(target.mTouchTime);
+        mInputLatency.copyTo(target.mInputLatency);
+        mDrawTime.copyTo(target.mDrawTime);
+        target.mTouchEvents = mTouchEvents;
+        target.mTouchSamples = mTouchSamples;
+        target.mCellsSelected = mCellsSelected;
+        target.mFrames = mFrames;
+        target.mCellsDrawn = mCellsDrawn;
+        target.mSegmentsDrawn = mSegmentsDrawn;
+    }
+
+    public synchronized void reset() {
+        mTouchTime.reset();
+        mInputLatency.reset();
+        mDrawTime.reset();
+        mTouchEvents = 0;
+        mTouchSamples = 0;
+        mCellsSelected = 0;
+        mFrames = 0;
+        mCellsDrawn = 0;
+        mSegmentsDrawn = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "touch{" + mTouchTime + "} inputLatency{" + mInputLatency + "} draw{" + mDrawTime
+                + "} events=" + mTouchEvents + " samples=" + mTouchSamples + " selected=" + mCellsSelected
+                + " frames=" + mFrames + " cells=" + mCellsDrawn + " segments=" + mSegmentsDrawn;
+    }
+}
@@ -0,0 +1,61 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  手势面板的跟踪点，代替写死的日志。
+ *
+ *  GestureLockViewGroup 和 GestureEngine 在关键位置成对调用 beginSection / endSection，没有设置时只多一次判空。
+ *  同一个线程中的区间按嵌套顺序结束。实现不应分配对象，也不应抛出异常。
+ *
+ *  SystemTracer 输出为 android.os.Trace 区间（与 systrace / Perfetto 对齐），TraceEventLog 记录到内存中，
+ *  可以导出为 Chrome trace-event JSON。
+ */
+
+public abstract class GestureTracer {
+
+    /**
+     * 处理一个触摸事件（GestureLockViewGroup.onTouchEvent）
+     */
+    public static final int SECTION_TOUCH_EVENT = 0;
+    /**
+     * 绘制格子和连线（GestureLockViewGroup.dispatchDraw）
+     */
+    public static final int SECTION_DRAW = 1;
+    /**
+     * 手指抬起后检查答案：设置手势时比较两次绘制，解锁时提交后台比较
+     */
+    public static final int SECTION_CHECK_ANSWER = 2;
+    /**
+     * 处理后台比较的结果
+     */
+    public static final int SECTION_VERIFY_RESULT = 3;
+    /**
+     * 重置选中的格子和连线
+     */
+    public static final int SECTION_RESET = 4;
+    /**
+     * 重新计算格子布局
+     */
+    public static final int SECTION_LAYOUT = 5;
+
+    public static final int SECTION_COUNT = 6;
+
+    private static final String[] NAMES = {
+            "GestureLock:touch",
+            "GestureLock:draw",
+            "GestureLock:checkAnswer",
+            "GestureLock:verifyResult",
+            "GestureLock:reset",
+            "GestureLock:layout",
+    };
+
+    /**
+     * 区间的名字，用于 android.os.Trace 和导出
+     */
+    public static String sectionName(int section) {
+        return section >= 0 && section < NAMES.length ? NAMES[section] : "GestureLock:" + section;
+    }
+
+    public abstract void beginSection(int section);
+
+    public abstract void endSection(int section);
+}
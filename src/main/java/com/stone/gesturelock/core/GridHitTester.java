@@ -0,0 +1,258 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  根据网格的几何参数（格子边长、间距、内边距）直接算出触点可能落入的格子，
+ *  然后只对这一个格子做命中判断，不再逐个遍历所有 GestureLockView。
+ *
+ *  格子 index 从 0 开始，按行排列：index = row * mCount + col
+ */
+
+public class GridHitTester {
+
+    /**
+     * 没有命中任何格子
+     */
+    public static final int NO_CELL = -1;
+
+    /**
+     * 每个边上的格子个数
+     */
+    private int mCount;
+    /**
+     * 格子边长
+     */
+    private int mCellSize;
+    /**
+     * 格子间距（最外层格子与容器之间也是这个间距）
+     */
+    private int mMargin;
+    /**
+     * 相邻两个格子左上角之间的距离 = mCellSize + mMargin
+     */
+    private int mPitch;
+    /**
+     * 网格左上角（即容器内边距）的位置
+     */
+    private int mOriginX;
+    private int mOriginY;
+    /**
+     * 命中区域的直径（方形时为边长），为了避免浮点运算，判断时都用 2 倍坐标比较
+     */
+    private int mHitDiameter;
+    private long mHitDiameterSquared;
+    /**
+     * 命中区域是否为圆形
+     */
+    private boolean mCircular;
+    /**
+     * cellsOnSegment 中每个命中格子对应的线段参数，用于按经过的先后排序
+     */
+    private float[] mSegmentT = new float[0];
+
+    /**
+     * 设置网格几何参数
+     *
+     * @param count    每个边上的格子个数
+     * @param cellSize 格子边长
+     * @param margin   格子间距
+     * @param originX  网格左边界
+     * @param originY  网格上边界
+     */
+    public void setGeometry(int count, int cellSize, int margin, int originX, int originY) {
+        this.mCount = count;
+        this.mCellSize = cellSize;
+        this.mMargin = margin;
+        this.mPitch = cellSize + margin;
+        this.mOriginX = originX;
+        this.mOriginY = originY;
+        if (mSegmentT.length < count * count) {
+            mSegmentT = new float[count * count];
+        }
+    }
+
+    /**
+     * 设置命中区域
+     *
+     * @param diameter 命中区域的直径（方形时为边长），以格子中心为中心
+     * @param circular true 为圆形区域，false 为方形区域
+     */
+    public void setHitArea(int diameter, boolean circular) {
+        this.mHitDiameter = diameter;
+        this.mHitDiameterSquared = (long) diameter * diameter;
+        this.mCircular = circular;
+    }
+
+    /**
+     * 通过x,y获得落入的格子
+     *
+     * @return 格子的 index，没有命中返回 {@link #NO_CELL}
+     */
+    public int hitTest(int x, int y) {
+        if (mPitch <= 0) {
+            return NO_CELL;
+        }
+        int col = nearestLine(x - mOriginX);
+        int row = nearestLine(y - mOriginY);
+
+        // 以格子中心为原点的 2 倍坐标
+        int dx = 2 * (x - mOriginX - mMargin - col * mPitch) - mCellSize;
+        int dy = 2 * (y - mOriginY - mMargin - row * mPitch) - mCellSize;
+
+        boolean hit;
+        if (mCircular) {
+            hit = (long) dx * dx + (long) dy * dy <= mHitDiameterSquared;
+        } else {
+            hit = Math.abs(dx) <= mHitDiameter && Math.abs(dy) <= mHitDiameter;
+        }
+        return hit ? row * mCount + col : NO_CELL;
+    }
+
+    /**
+     * 计算线段 (x0, y0) - (x1, y1) 经过的所有格子的命中区域，按经过的先后顺序写入 out，不分配对象
+     *
+     * @param out 保存格子 index，长度不小于 count * count 时不会遗漏
+     * @return 写入 out 的格子个数
+     */
+    public int cellsOnSegment(int x0, int y0, int x1, int y1, int[] out) {
+        if (mPitch <= 0) {
+            return 0;
+        }
+        int fromCol = nearestLine(Math.min(x0, x1) - mOriginX);
+        int toCol = nearestLine(Math.max(x0, x1) - mOriginX);
+        int fromRow = nearestLine(Math.min(y0, y1) - mOriginY);
+        int toRow = nearestLine(Math.max(y0, y1) - mOriginY);
+
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float half = mHitDiameter / 2f;
+        int size = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                // 线段起点相对格子中心的坐标
+                float fx = x0 - (mOriginX + mMargin + col * mPitch + mCellSize / 2f);
+                float fy = y0 - (mOriginY + mMargin + row * mPitch + mCellSize / 2f);
+                float t = mCircular ? enterCircle(fx, fy, dx, dy, half) : enterSquare(fx, fy, dx, dy, half);
+                if (t < 0 || size >= out.length) {
+                    continue;
+                }
+                // 按进入的先后插入排序，一条线段经过的格子很少
+                int i = size++;
+                while (i > 0 && mSegmentT[i - 1] > t) {
+                    mSegmentT[i] = mSegmentT[i - 1];
+                    out[i] = out[i - 1];
+                    i--;
+                }
+                mSegmentT[i] = t;
+                out[i] = row * mCount + col;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 线段 f + t * d (t 属于 [0, 1]) 第一次进入以原点为中心、半径为 r 的圆的参数
+     *
+     * @return 不相交时返回 -1
+     */
+    private static float enterCircle(float fx, float fy, float dx, float dy, float r) {
+        float c = fx * fx + fy * fy - r * r;
+        if (c <= 0) {
+            return 0;
+        }
+        float a = dx * dx + dy * dy;
+        float b = 2 * (fx * dx + fy * dy);
+        float disc = b * b - 4 * a * c;
+        if (a == 0 || disc < 0) {
+            return -1;
+        }
+        float t = (float) ((-b - Math.sqrt(disc)) / (2 * a));
+        return t >= 0 && t <= 1 ? t : -1;
+    }
+
+    /**
+     * 线段 f + t * d (t 属于 [0, 1]) 第一次进入以原点为中心、半边长为 h 的正方形的参数
+     *
+     * @return 不相交时返回 -1
+     */
+    private static float enterSquare(float fx, float fy, float dx, float dy, float h) {
+        float tMin = 0;
+        float tMax = 1;
+        for (int axis = 0; axis < 2; axis++) {
+            float f = axis == 0 ? fx : fy;
+            float d = axis == 0 ? dx : dy;
+            if (d == 0) {
+                if (f < -h || f > h) {
+                    return -1;
+                }
+                continue;
+            }
+            float t1 = (-h - f) / d;
+            float t2 = (h - f) / d;
+            if (t1 > t2) {
+                float tmp = t1;
+                t1 = t2;
+                t2 = tmp;
+            }
+            tMin = Math.max(tMin, t1);
+            tMax = Math.min(tMax, t2);
+            if (tMin > tMax) {
+                return -1;
+            }
+        }
+        return tMin;
+    }
+
+    /**
+     * 计算离给定偏移最近的一列（行），结果限制在 [0, mCount - 1]
+     */
+    private int nearestLine(int offset) {
+        // 第 i 个格子中心的偏移为 mMargin + mCellSize / 2 + i * mPitch，
+        // 相邻两个中心的中点即为分界线
+        int line = floorDiv(2 * (offset - mMargin) - mCellSize + mPitch, 2 * mPitch);
+        if (line < 0) {
+            return 0;
+        }
+        return line >= mCount ? mCount - 1 : line;
+    }
+
+    private static int floorDiv(int a, int b) {
+        int q = a / b;
+        return (a % b != 0 && (a ^ b) < 0) ? q - 1 : q;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getCellSize() {
+        return mCellSize;
+    }
+
+    public int getMargin() {
+        return mMargin;
+    }
+
+    public int getOriginX() {
+        return mOriginX;
+    }
+
+    public int getOriginY() {
+        return mOriginY;
+    }
+
+    public int getHitDiameter() {
+        return mHitDiameter;
+    }
+
+    public boolean isCircular() {
+        return mCircular;
+    }
+
+    public int getCellLeft(int index) {
+        return mOriginX + mMargin + (index % mCount) * mPitch;
+    }
+
+    public int getCellTop(int index) {
+        return mOriginY + mMargin + (index / mCount) * mPitch;
+    }
+}
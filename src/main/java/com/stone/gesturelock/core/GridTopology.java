@@ -0,0 +1,120 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  n*n 网格中任意两个格子之间的连线经过的格子。
+ *
+ *  从 a 连到 b 时，线段上的格点（除两端外）就是被经过的格子，个数为 gcd(|dx|, |dy|) - 1，
+ *  按从 a 到 b 的顺序保存。与 Android 系统的图案锁规则相同：经过还未选中的格子时该格子会被选中，
+ *  因此一个合法的图案中，相邻两个节点之间经过的格子一定都已经在前面出现过。
+ *
+ *  每个大小只计算一次，通过 of 在进程内共享，不可变、线程安全。格子 index 从 0 开始，按行排列。
+ */
+
+public final class GridTopology {
+
+    private static final GridTopology[] sCache = new GridTopology[16];
+
+    private final int mCount;
+    private final int mCellCount;
+    /**
+     * 第 a * mCellCount + b 对格子经过的格子在 mBetween 中的范围为 [mStarts[i], mStarts[i + 1])
+     */
+    private final int[] mStarts;
+    private final byte[] mBetween;
+    /**
+     * 格子不超过32个时，每对格子经过的格子的位掩码
+     */
+    private final int[] mBetweenMasks;
+
+    /**
+     * 获取共享的实例
+     *
+     * @param count 每个边上的格子个数
+     */
+    public static GridTopology of(int count) {
+        if (count < 1 || count * count > PatternSelection.MAX_ID) {
+            throw new IllegalArgumentException("invalid count: " + count);
+        }
+        synchronized (sCache) {
+            GridTopology topology = sCache[count];
+            if (topology == null) {
+                topology = new GridTopology(count);
+                sCache[count] = topology;
+            }
+            return topology;
+        }
+    }
+
+    private GridTopology(int count) {
+        mCount = count;
+        mCellCount = count * count;
+        int pairs = mCellCount * mCellCount;
+        mStarts = new int[pairs + 1];
+        int total = 0;
+        for (int a = 0; a < mCellCount; a++) {
+            for (int b = 0; b < mCellCount; b++) {
+                mStarts[a * mCellCount + b] = total;
+                if (a != b) {
+                    total += gcd(Math.abs(b % count - a % count), Math.abs(b / count - a / count)) - 1;
+                }
+            }
+        }
+        mStarts[pairs] = total;
+        mBetween = new byte[total];
+        mBetweenMasks = mCellCount <= 32 ? new int[pairs] : null;
+        for (int a = 0; a < mCellCount; a++) {
+            for (int b = 0; b < mCellCount; b++) {
+                int pair = a * mCellCount + b;
+                int steps = mStarts[pair + 1] - mStarts[pair] + 1;
+                int stepX = (b % count - a % count) / steps;
+                int stepY = (b / count - a / count) / steps;
+                for (int k = 1; k < steps; k++) {
+                    int cell = (a / count + k * stepY) * count + a % count + k * stepX;
+                    mBetween[mStarts[pair] + k - 1] = (byte) cell;
+                    if (mBetweenMasks != null) {
+                        mBetweenMasks[pair] |= 1 << cell;
+                    }
+                }
+            }
+        }
+    }
+
+    static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getCellCount() {
+        return mCellCount;
+    }
+
+    /**
+     * 从 from 连到 to 经过的格子个数
+     */
+    public int betweenCount(int from, int to) {
+        int pair = from * mCellCount + to;
+        return mStarts[pair + 1] - mStarts[pair];
+    }
+
+    /**
+     * 从 from 连到 to 经过的第 i 个格子（按从 from 到 to 的顺序）
+     */
+    public int between(int from, int to, int i) {
+        return mBetween[mStarts[from * mCellCount + to] + i] & 0xFF;
+    }
+
+    /**
+     * 格子不超过32个时，从 from 连到 to 经过的格子的位掩码
+     */
+    int betweenMask(int from, int to) {
+        return mBetweenMasks[from * mCellCount + to];
+    }
+}
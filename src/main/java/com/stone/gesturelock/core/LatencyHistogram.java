@@ -0,0 +1,153 @@
+package com.stone.gesturelock.core;
+
+import java.util.Arrays;
+
+/**
+ *  固定大小的耗时直方图（纳秒）。
+ *
+ *  桶按 2 的幂分段，每段再线性分为 SUB_BUCKETS 个桶，相对误差不超过 1 / SUB_BUCKETS（12.5%），
+ *  覆盖 0 到 Long.MAX_VALUE，只有一个预先分配的 long[]，record 不分配对象。
+ *  不是线程安全的，由 GestureMetrics 加锁。
+ */
+
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * 最高位为 0 .. 62 的正数都有对应的桶
+     */
+    static final int BUCKET_COUNT = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+
+    /**
+     * 记录一个值，负数按 0 记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[bucketFor(value)]++;
+        mTotalCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶中最小的值
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << exp) | ((long) sub << (exp - SUB_BITS));
+    }
+
+    /**
+     * 桶中最大的值
+     */
+    static long upperBound(int bucket) {
+        return bucket + 1 < BUCKET_COUNT ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * 没有记录时为0
+     */
+    public long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mTotalCount == 0 ? 0 : mMax;
+    }
+
+    public double getMean() {
+        return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+    }
+
+    /**
+     * 百分位数，返回所在桶的上界（不超过最大值）
+     *
+     * @param percentile 0 到 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * mTotalCount);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.max(getMin(), Math.min(upperBound(i), mMax));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * 每个桶的计数，下标为 i 的桶包含 [lowerBound(i), upperBound(i)]
+     */
+    public long getCountAt(int bucket) {
+        return mCounts[bucket];
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    public static long getBucketLowerBound(int bucket) {
+        return lowerBound(bucket);
+    }
+
+    /**
+     * 复制到另一个直方图，不分配对象
+     */
+    public void copyTo(LatencyHistogram target) {
+        System.arraycopy(mCounts, 0, target.mCounts, 0, BUCKET_COUNT);
+        target.mTotalCount = mTotalCount;
+        target.mSum = mSum;
+        target.mMin = mMin;
+        target.mMax = mMax;
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mTotalCount + " p50=" + getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90)
+                + " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+    }
+}
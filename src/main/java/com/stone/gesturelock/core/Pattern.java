@@ -0,0 +1,260 @@
+package com.stone.gesturelock.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  不可变的手势图案。
+ *
+ *  按顺序保存格子id（从1开始），每个节点按 (id - 1) 压缩成 bitsPerNode(mCount * mCount) 位放进一个 long，
+ *  3*3 和 4*4 为4位、5*5为5位，……，11*11为7位。能放进 long 的图案比较和计算 hash 都是 O(1)；
+ *  更长的图案额外保存完整的 byte[]，long 中只保存前面能放下的部分。
+ *
+ *  同样的格子序列只有在 mCount 相同时才相等，不同大小的面板上同一个id对应的位置不同。
+ */
+
+public final class Pattern implements PatternView {
+
+    /**
+     * 每个边上的格子个数
+     */
+    private final int mCount;
+    /**
+     * 节点个数
+     */
+    private final int mLength;
+    /**
+     * 压缩后的节点，第 i 个节点占第 [i * bits, (i + 1) * bits) 位
+     */
+    private final long mPacked;
+    /**
+     * 放不进 long 时保存完整的序列，否则为null
+     */
+    private final byte[] mOverflow;
+    private final int mHash;
+
+    private Pattern(int count, int length, long packed, byte[] overflow) {
+        this.mCount = count;
+        this.mLength = length;
+        this.mPacked = packed;
+        this.mOverflow = overflow;
+        int hash = (int) (packed ^ (packed >>> 32));
+        hash = 31 * hash + length;
+        hash = 31 * hash + count;
+        if (overflow != null) {
+            hash = 31 * hash + Arrays.hashCode(overflow);
+        }
+        this.mHash = hash;
+    }
+
+    /**
+     * 一个节点占用的位数
+     *
+     * @param cellCount 格子总数
+     */
+    public static int bitsPerNode(int cellCount) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(cellCount - 1));
+    }
+
+    /**
+     * 一个 long 中最多能放下的节点个数
+     *
+     * @param cellCount 格子总数
+     */
+    public static int packedCapacity(int cellCount) {
+        return 64 / bitsPerNode(cellCount);
+    }
+
+    /**
+     * @param count 每个边上的格子个数
+     * @param ids   格子id（从1开始），不能重复
+     */
+    public static Pattern of(int count, int... ids) {
+        checkCount(count);
+        int cellCount = count * count;
+        int bits = bitsPerNode(cellCount);
+        int capacity = packedCapacity(cellCount);
+        long packed = 0;
+        byte[] overflow = ids.length > capacity ? new byte[ids.length] : null;
+        long[] visited = new long[(cellCount >> 6) + 1];
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (id < 1 || id > cellCount) {
+                throw new IllegalArgumentException("invalid id " + id + " for count " + count);
+            }
+            if ((visited[id >> 6] & (1L << id)) != 0) {
+                throw new IllegalArgumentException("duplicate id " + id);
+            }
+            visited[id >> 6] |= 1L << id;
+            if (i < capacity) {
+                packed |= (long) (id - 1) << (i * bits);
+            }
+            if (overflow != null) {
+                overflow[i] = (byte) id;
+            }
+        }
+        return new Pattern(count, ids.length, packed, overflow);
+    }
+
+    /**
+     * 复制当前的选中状态
+     */
+    public static Pattern of(int count, PatternView view) {
+        int[] ids = new int[view.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = view.get(i);
+        }
+        return of(count, ids);
+    }
+
+    /**
+     * 兼容 setAnswer(Integer[]) 的答案格式
+     */
+    public static Pattern fromArray(int count, Integer[] ids) {
+        int[] values = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            values[i] = ids[i];
+        }
+        return of(count, values);
+    }
+
+    /**
+     * 兼容回调中 List<Integer> 的答案格式
+     */
+    public static Pattern fromList(int count, List<Integer> ids) {
+        int[] values = new int[ids.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ids.get(i);
+        }
+        return of(count, values);
+    }
+
+    private static void checkCount(int count) {
+        if (count < 1 || count * count > PatternSelection.MAX_ID) {
+            throw new IllegalArgumentException("invalid count: " + count);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int size() {
+        return mLength;
+    }
+
+    @Override
+    public int get(int position) {
+        if (position < 0 || position >= mLength) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mLength);
+        }
+        if (mOverflow != null) {
+            return mOverflow[position] & 0xFF;
+        }
+        int bits = bitsPerNode(mCount * mCount);
+        return (int) ((mPacked >>> (position * bits)) & ((1L << bits) - 1)) + 1;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        for (int i = 0; i < mLength; i++) {
+            if (get(i) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 压缩后的节点，isPacked() 为false时只包含前面能放下的部分
+     */
+    public long getPacked() {
+        return mPacked;
+    }
+
+    /**
+     * 整个图案是否都放在了 getPacked() 中
+     */
+    public boolean isPacked() {
+        return mOverflow == null;
+    }
+
+    /**
+     * 与手势过程中的选中状态比较，不分配对象；两者都能放进 long 时为 O(1)
+     */
+    public boolean matches(PatternSelection selection) {
+        if (selection == null || selection.size() != mLength
+                || selection.getCellCount() != mCount * mCount
+                || selection.getPacked() != mPacked) {
+            return false;
+        }
+        if (mOverflow == null) {
+            return true;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if ((mOverflow[i] & 0xFF) != selection.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int[] toIntArray() {
+        int[] ids = new int[mLength];
+        for (int i = 0; i < mLength; i++) {
+            ids[i] = get(i);
+        }
+        return ids;
+    }
+
+    /**
+     * 转换为 setAnswer(Integer[]) 的答案格式
+     */
+    public Integer[] toArray() {
+        Integer[] ids = new Integer[mLength];
+        for (int i = 0; i < mLength; i++) {
+            ids[i] = get(i);
+        }
+        return ids;
+    }
+
+    public List<Integer> toList() {
+        List<Integer> ids = new ArrayList<>(mLength);
+        for (int i = 0; i < mLength; i++) {
+            ids.add(get(i));
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pattern)) {
+            return false;
+        }
+        Pattern other = (Pattern) o;
+        return mHash == other.mHash && mCount == other.mCount && mLength == other.mLength
+                && mPacked == other.mPacked && Arrays.equals(mOverflow, other.mOverflow);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < mLength; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(get(i));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,391 @@
+package com.stone.gesturelock.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ *  常见（弱）图案的黑名单：直线、L形、Z形以及泄露数据中常见的图案，以格子id序列的字典树保存。
+ *
+ *  整棵树保存在一个 byte 数组中，不为每个节点创建对象，每个节点只占 2 + 4 * 子节点个数 字节
+ *  （40万条随机的4*4图案约10MB，真实数据的公共前缀更多）。查找一个图案只需沿着
+ *  格子id走一遍（每层在有序的子节点中二分查找），可以在绘制过程中每选中一个格子走一步（root / next / isTerminal）。
+ *
+ *  节点格式：flags(1) childCount(1) labels(childCount) offsets(3 * childCount)，
+ *  labels 为升序的格子id，offsets 为子节点在数组中的位置（大端），根节点在位置0。
+ *
+ *  文件格式（大端）：magic(4) version(1) sectionCount(1)，之后每个 section：count(1) entries(4) size(4) nodes(size)，
+ *  每个 section 对应一种网格大小，读取时只保留需要的那一个。文件由 Builder 生成。
+ */
+
+public final class PatternBlacklist {
+
+    /**
+     * next 没有对应的子节点时返回
+     */
+    public static final int NO_NODE = -1;
+
+    private static final int MAGIC = 0x474C4231; // "GLB1"
+    private static final int VERSION = 1;
+    private static final int FLAG_TERMINAL = 1;
+    private static final int OFFSET_BYTES = 3;
+    private static final int MAX_SIZE = 1 << (8 * OFFSET_BYTES);
+
+    private final int mCount;
+    private final int mEntries;
+    private final byte[] mNodes;
+
+    private PatternBlacklist(int count, int entries, byte[] nodes) {
+        this.mCount = count;
+        this.mEntries = entries;
+        this.mNodes = nodes;
+    }
+
+    /**
+     * 读取文件中对应网格大小的黑名单，数据量大时应在后台线程中调用
+     *
+     * @return 文件中没有这个大小时返回null
+     * @throws IOException 格式不正确或者数据不完整
+     */
+    public static PatternBlacklist read(InputStream stream, int count) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("not a pattern blacklist");
+        }
+        int sections = in.readUnsignedByte();
+        for (int i = 0; i < sections; i++) {
+            int sectionCount = in.readUnsignedByte();
+            int entries = in.readInt();
+            int size = in.readInt();
+            if (size <= 0 || size > MAX_SIZE) {
+                throw new IOException("invalid section size: " + size);
+            }
+            if (sectionCount != count) {
+                skipFully(in, size);
+                continue;
+            }
+            byte[] nodes = new byte[size];
+            in.readFully(nodes);
+            validate(nodes, count * count);
+            return new PatternBlacklist(count, entries, nodes);
+        }
+        return null;
+    }
+
+    /**
+     * 在后台线程中读取，结束后关闭 stream。不使用 PatternVerifier 的线程，读取大的黑名单时不会推迟解锁比较
+     */
+    public static Future<PatternBlacklist> readAsync(final InputStream stream, final int count)
+            throws RejectedExecutionException {
+        try {
+            return BackgroundLoader.submit(new Callable<PatternBlacklist>() {
+                @Override
+                public PatternBlacklist call() throws IOException {
+                    try {
+                        return read(new BufferedInputStream(stream), count);
+                    } finally {
+                        stream.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int size) throws IOException {
+        while (size > 0) {
+            int skipped = in.skipBytes(size);
+            if (skipped <= 0) {
+                throw new IOException("unexpected end of blacklist");
+            }
+            size -= skipped;
+        }
+    }
+
+    /**
+     * 检查所有节点，并且每个子节点的位置都是一个节点的起点，之后的查找不再做边界检查
+     */
+    private static void validate(byte[] nodes, int maxId) throws IOException {
+        BitSet starts = new BitSet(nodes.length);
+        int node = 0;
+        while (node < nodes.length) {
+            starts.set(node);
+            if (node + 2 > nodes.length) {
+                throw new IOException("truncated node at " + node);
+            }
+            int children = nodes[node + 1] & 0xFF;
+            int end = node + 2 + children * (1 + OFFSET_BYTES);
+            if (end > nodes.length) {
+                throw new IOException("truncated node at " + node);
+            }
+            int lastLabel = 0;
+            for (int i = 0; i < children; i++) {
+                int label = nodes[node + 2 + i] & 0xFF;
+                int child = readOffset(nodes, node + 2 + children + OFFSET_BYTES * i);
+                if (label <= lastLabel || label > maxId || child <= node || child >= nodes.length) {
+                    throw new IOException("invalid child " + i + " at " + node);
+                }
+                lastLabel = label;
+            }
+            node = end;
+        }
+        // 节点是顺序排列的，走完一遍之后才知道所有节点的起点
+        for (node = starts.nextSetBit(0); node >= 0; node = starts.nextSetBit(node + 1)) {
+            int children = nodes[node + 1] & 0xFF;
+            for (int i = 0; i < children; i++) {
+                if (!starts.get(readOffset(nodes, node + 2 + children + OFFSET_BYTES * i))) {
+                    throw new IOException("child " + i + " at " + node + " is not a node");
+                }
+            }
+        }
+    }
+
+    private static int readOffset(byte[] nodes, int position) {
+        return (nodes[position] & 0xFF) << 16 | (nodes[position + 1] & 0xFF) << 8 | (nodes[position + 2] & 0xFF);
+    }
+
+    /**
+     * 每个边上的格子个数
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 图案个数
+     */
+    public int getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * 占用的字节数
+     */
+    public int getSize() {
+        return mNodes.length;
+    }
+
+    /**
+     * 空图案对应的节点
+     */
+    public int root() {
+        return 0;
+    }
+
+    /**
+     * 在 node 之后接上格子 id
+     *
+     * @param node 为 NO_NODE 时返回 NO_NODE
+     * @return 没有以此为前缀的图案时返回 NO_NODE
+     */
+    public int next(int node, int id) {
+        if (node == NO_NODE) {
+            return NO_NODE;
+        }
+        int children = mNodes[node + 1] & 0xFF;
+        int low = 0;
+        int high = children - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int label = mNodes[node + 2 + mid] & 0xFF;
+            if (label < id) {
+                low = mid + 1;
+            } else if (label > id) {
+                high = mid - 1;
+            } else {
+                return readOffset(mNodes, node + 2 + children + OFFSET_BYTES * mid);
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * 从根节点到 node 的图案是否在黑名单中
+     */
+    public boolean isTerminal(int node) {
+        return node != NO_NODE && (mNodes[node] & FLAG_TERMINAL) != 0;
+    }
+
+    public boolean contains(PatternView pattern) {
+        int node = root();
+        for (int i = 0; i < pattern.size() && node != NO_NODE; i++) {
+            node = next(node, pattern.get(i));
+        }
+        return isTerminal(node);
+    }
+
+    /**
+     * 生成黑名单文件，只在生成工具中使用
+     */
+    public static final class Builder {
+
+        private final List<Section> mSections = new ArrayList<>();
+        private Section mCurrent;
+
+        /**
+         * 开始一种网格大小，之后 add 的图案都属于它
+         */
+        public Builder section(int count) {
+            for (Section section : mSections) {
+                if (section.mCount == count) {
+                    mCurrent = section;
+                    return this;
+                }
+            }
+            mCurrent = new Section(count);
+            mSections.add(mCurrent);
+            return this;
+        }
+
+        /**
+         * @param ids 格子id，从1开始
+         * @return 是否是新的图案
+         * @throws IllegalArgumentException id 超出范围或者重复
+         */
+        public boolean add(int[] ids) {
+            if (mCurrent == null) {
+                throw new IllegalStateException("call section(count) first");
+            }
+            return mCurrent.add(ids);
+        }
+
+        public void write(OutputStream stream) throws IOException {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(mSections.size());
+            for (Section section : mSections) {
+                byte[] nodes = section.serialize();
+                out.writeByte(section.mCount);
+                out.writeInt(section.mEntries);
+                out.writeInt(nodes.length);
+                out.write(nodes);
+            }
+            out.flush();
+        }
+
+        /**
+         * 直接生成某一种网格大小的黑名单
+         */
+        public PatternBlacklist build(int count) throws IOException {
+            section(count);
+            return new PatternBlacklist(count, mCurrent.mEntries, mCurrent.serialize());
+        }
+    }
+
+    private static final class Section {
+
+        final int mCount;
+        final Node mRoot = new Node();
+        int mEntries;
+
+        Section(int count) {
+            this.mCount = count;
+        }
+
+        boolean add(int[] ids) {
+            int maxId = mCount * mCount;
+            boolean[] seen = new boolean[maxId + 1];
+            Node node = mRoot;
+            for (int id : ids) {
+                if (id < 1 || id > maxId || seen[id]) {
+                    throw new IllegalArgumentException("invalid pattern for count " + mCount + ": "
+                            + Arrays.toString(ids));
+                }
+                seen[id] = true;
+                node = node.child(id);
+            }
+            if (node.isTerminal || ids.length == 0) {
+                return false;
+            }
+            node.isTerminal = true;
+            mEntries++;
+            return true;
+        }
+
+        /**
+         * 按前序排列节点，子节点都在父节点之后
+         */
+        byte[] serialize() throws IOException {
+            List<Node> order = new ArrayList<>();
+            collect(mRoot, order);
+            int size = 0;
+            for (Node node : order) {
+                node.mOffset = size;
+                size += 2 + node.mChildCount * (1 + OFFSET_BYTES);
+            }
+            if (size > MAX_SIZE) {
+                throw new IOException("blacklist too large: " + size + " bytes");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+            for (Node node : order) {
+                bytes.write(node.isTerminal ? FLAG_TERMINAL : 0);
+                bytes.write(node.mChildCount);
+                for (int i = 0; i < node.mChildCount; i++) {
+                    bytes.write(node.mLabels[i]);
+                }
+                for (int i = 0; i < node.mChildCount; i++) {
+                    int offset = node.mChildren[i].mOffset;
+                    bytes.write(offset >>> 16);
+                    bytes.write(offset >>> 8);
+                    bytes.write(offset);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void collect(Node node, List<Node> order) {
+            order.add(node);
+            for (int i = 0; i < node.mChildCount; i++) {
+                collect(node.mChildren[i], order);
+            }
+        }
+    }
+
+    private static final class Node {
+
+        boolean isTerminal;
+        int mChildCount;
+        int[] mLabels = new int[2];
+        Node[] mChildren = new Node[2];
+        int mOffset;
+
+        /**
+         * 找到或者创建 id 对应的子节点，子节点按 id 升序保存
+         */
+        Node child(int id) {
+            int position = Arrays.binarySearch(mLabels, 0, mChildCount, id);
+            if (position >= 0) {
+                return mChildren[position];
+            }
+            position = -position - 1;
+            if (mChildCount == mLabels.length) {
+                mLabels = Arrays.copyOf(mLabels, mChildCount * 2);
+                mChildren = Arrays.copyOf(mChildren, mChildCount * 2);
+            }
+            System.arraycopy(mLabels, position, mLabels, position + 1, mChildCount - position);
+            System.arraycopy(mChildren, position, mChildren, position + 1, mChildCount - position);
+            Node child = new Node();
+            mLabels[position] = id;
+            mChildren[position] = child;
+            mChildCount++;
+            return child;
+        }
+    }
+}
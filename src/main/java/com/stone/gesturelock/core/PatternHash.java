@@ -0,0 +1,117 @@
+package com.stone.gesturelock.core;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ *  加盐的手势图案摘要（PBKDF2WithHmacSHA1），内存中不再保存答案的明文。
+ *
+ *  PBKDF2 故意很慢，create 和 matches 都不要在主线程调用，参见 PatternVerifier。
+ *  Android 从 API 10 开始提供 PBKDF2WithHmacSHA1，因此库的 minSdkVersion 为 10。
+ */
+
+public final class PatternHash {
+
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final int DEFAULT_ITERATIONS = 10000;
+    public static final int SALT_LENGTH = 16;
+    /**
+     * 摘要长度（位），等于 SHA-1 的输出长度：更长时 PBKDF2 要计算两块，使用者多花一倍时间，
+     * 而猜测时只需要比较第一块
+     */
+    private static final int KEY_LENGTH = 160;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] mSalt;
+    private final int mIterations;
+    private final byte[] mHash;
+
+    public PatternHash(byte[] salt, int iterations, byte[] hash) {
+        if (salt == null || hash == null || iterations <= 0) {
+            throw new IllegalArgumentException("invalid pattern hash");
+        }
+        this.mSalt = salt.clone();
+        this.mIterations = iterations;
+        this.mHash = hash.clone();
+    }
+
+    /**
+     * 用随机盐计算图案的摘要
+     */
+    public static PatternHash create(Pattern pattern) {
+        return create(pattern, DEFAULT_ITERATIONS);
+    }
+
+    public static PatternHash create(Pattern pattern, int iterations) {
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        return new PatternHash(salt, iterations, derive(pattern, salt, iterations, KEY_LENGTH));
+    }
+
+    /**
+     * 计算候选图案的摘要并与保存的摘要做常量时间比较，按保存的摘要长度计算，之前保存的 256 位摘要仍然可以比较
+     */
+    public boolean matches(Pattern candidate) {
+        return candidate != null
+                && MessageDigest.isEqual(mHash, derive(candidate, mSalt, mIterations, mHash.length * 8));
+    }
+
+    /**
+     * 将图案编码为只包含ASCII字符的口令（面板大小 + 每个节点两位十六进制），各个平台上 PBKDF2 的结果一致
+     */
+    static byte[] derive(Pattern pattern, byte[] salt, int iterations, int keyLength) {
+        char[] password = new char[3 + 2 * pattern.size()];
+        password[0] = HEX[(pattern.getCount() >> 4) & 0xF];
+        password[1] = HEX[pattern.getCount() & 0xF];
+        password[2] = ':';
+        for (int i = 0; i < pattern.size(); i++) {
+            int id = pattern.get(i);
+            password[3 + 2 * i] = HEX[(id >> 4) & 0xF];
+            password[4 + 2 * i] = HEX[id & 0xF];
+        }
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    public byte[] getSalt() {
+        return mSalt.clone();
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+
+    public byte[] getHash() {
+        return mHash.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PatternHash)) {
+            return false;
+        }
+        PatternHash other = (PatternHash) o;
+        return mIterations == other.mIterations && Arrays.equals(mSalt, other.mSalt)
+                && MessageDigest.isEqual(mHash, other.mHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(mSalt) + mIterations;
+    }
+}
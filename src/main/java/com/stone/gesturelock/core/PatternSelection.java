@@ -0,0 +1,180 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  手势过程中已选中的格子。
+ *
+ *  用 long[] 位图判断格子是否已选中，用 byte[] 保存选中的顺序，
+ *  add/contains/get 都是 O(1) 且不会装箱，手势过程中不分配对象。
+ *  同时按 Pattern 的格式维护压缩后的 long，与 Pattern 比较时为 O(1)。
+ *  格子id从1开始，最多支持255个格子。
+ */
+
+public class PatternSelection implements PatternView {
+
+    /**
+     * 支持的最大格子id
+     */
+    public static final int MAX_ID = 0xFF;
+
+    /**
+     * 位图，第 id 位表示格子 id 是否已被选中
+     */
+    private long[] mMask = new long[1];
+    /**
+     * 选中的顺序
+     */
+    private byte[] mSequence = new byte[0];
+    private int mSize;
+
+    /**
+     * 格子总数
+     */
+    private int mCellCount;
+    /**
+     * 与 Pattern 相同的压缩格式：每个节点的位数、long 中能放下的节点个数以及压缩后的节点
+     */
+    private int mBitsPerNode;
+    private int mPackedCapacity;
+    private long mPacked;
+
+    public PatternSelection() {
+    }
+
+    public PatternSelection(int cellCount) {
+        setCellCount(cellCount);
+    }
+
+    /**
+     * 设置格子总数并清空选中状态，只有容量不够时才会重新分配
+     */
+    public void setCellCount(int cellCount) {
+        ensureCapacity(cellCount);
+        clear();
+        mCellCount = cellCount;
+        mBitsPerNode = Pattern.bitsPerNode(cellCount);
+        mPackedCapacity = Pattern.packedCapacity(cellCount);
+    }
+
+    public int getCellCount() {
+        return mCellCount;
+    }
+
+    /**
+     * 保证可以容纳 cellCount 个格子
+     */
+    private void ensureCapacity(int cellCount) {
+        if (cellCount > MAX_ID) {
+            throw new IllegalArgumentException("too many cells: " + cellCount);
+        }
+        int words = (cellCount >> 6) + 1;
+        if (mMask.length < words) {
+            long[] mask = new long[words];
+            System.arraycopy(mMask, 0, mask, 0, mMask.length);
+            mMask = mask;
+        }
+        if (mSequence.length < cellCount) {
+            byte[] sequence = new byte[cellCount];
+            System.arraycopy(mSequence, 0, sequence, 0, mSize);
+            mSequence = sequence;
+        }
+    }
+
+    /**
+     * 选中格子
+     *
+     * @return 已经选中过或超出容量时返回false
+     */
+    public boolean add(int id) {
+        if (id <= 0 || id > mCellCount || mSize >= mSequence.length || contains(id)) {
+            return false;
+        }
+        mMask[id >> 6] |= 1L << id;
+        if (mSize < mPackedCapacity) {
+            mPacked |= (long) (id - 1) << (mSize * mBitsPerNode);
+        }
+        mSequence[mSize++] = (byte) id;
+        return true;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        int word = id >> 6;
+        return id > 0 && word < mMask.length && (mMask[word] & (1L << id)) != 0;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+        }
+        return mSequence[position] & 0xFF;
+    }
+
+    /**
+     * 最后一个选中的格子id，没有选中时返回0
+     */
+    public int last() {
+        return mSize == 0 ? 0 : mSequence[mSize - 1] & 0xFF;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mMask.length; i++) {
+            mMask[i] = 0;
+        }
+        mPacked = 0;
+        mSize = 0;
+    }
+
+    /**
+     * 按 Pattern 的格式压缩后的节点，节点个数超出 long 的容量时只包含前面的部分
+     */
+    public long getPacked() {
+        return mPacked;
+    }
+
+    /**
+     * 复制另一个图案的内容
+     */
+    public void set(PatternView other) {
+        clear();
+        for (int i = 0; i < other.size(); i++) {
+            add(other.get(i));
+        }
+    }
+
+    /**
+     * 比较两个图案的顺序和内容是否一致
+     */
+    public boolean contentEquals(PatternView other) {
+        if (other == null || other.size() != mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if ((mSequence[i] & 0xFF) != other.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mSequence[i] & 0xFF);
+        }
+        return builder.append(']').toString();
+    }
+}
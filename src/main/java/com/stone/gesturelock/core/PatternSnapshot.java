@@ -0,0 +1,208 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  一次手势的只读快照，用于 GestureEngine.AttemptListener 回调，从一个很小的对象池中复用，不随每次尝试分配。
+ *
+ *  使用引用计数管理：obtain 时为1；回调期间快照一定有效，回调返回后 GestureEngine 会 release 自己的引用。
+ *  需要在回调之后使用（保存或者交给其他线程）时先 retain，用完后 release，计数降为0时放回对象池。
+ *  retain / release 可以在任意线程调用。
+ *
+ *  放回对象池后、被下一次尝试取出之前访问会抛出 IllegalStateException；被取出之后同一个对象保存的是
+ *  另一次尝试的图案，只凭对象本身无法发现。每次 obtain 都会增加 getGeneration，
+ *  持有者在 retain 时记下它，之后通过 checkGeneration 确认读到的仍然是自己的那一次尝试。
+ */
+
+public final class PatternSnapshot implements PatternView {
+
+    private static final int POOL_SIZE = 8;
+    private static final PatternSnapshot[] sPool = new PatternSnapshot[POOL_SIZE];
+    private static int sPoolSize;
+
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    /**
+     * 每次从对象池中取出时加一
+     */
+    private volatile int mGeneration;
+    private int mCount;
+    private int mLength;
+    /**
+     * 格子id，只增长不缩小
+     */
+    private byte[] mIds = new byte[16];
+
+    private PatternSnapshot() {
+    }
+
+    /**
+     * 复制 view 当前的内容，引用计数为1
+     *
+     * @param count 每个边上的格子个数
+     */
+    public static PatternSnapshot obtain(int count, PatternView view) {
+        PatternSnapshot snapshot = null;
+        synchronized (sPool) {
+            if (sPoolSize > 0) {
+                snapshot = sPool[--sPoolSize];
+                sPool[sPoolSize] = null;
+            }
+        }
+        if (snapshot == null) {
+            snapshot = new PatternSnapshot();
+        }
+        int length = view.size();
+        if (snapshot.mIds.length < length) {
+            snapshot.mIds = new byte[Math.max(length, snapshot.mIds.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            snapshot.mIds[i] = (byte) view.get(i);
+        }
+        snapshot.mCount = count;
+        snapshot.mLength = length;
+        snapshot.mGeneration++;
+        // volatile 写，之后通过 retain 或者线程间传递拿到快照的线程都能看到上面的内容
+        snapshot.mRefCount.set(1);
+        return snapshot;
+    }
+
+    /**
+     * 增加一个引用
+     *
+     * @throws IllegalStateException 已经被释放
+     */
+    public PatternSnapshot retain() {
+        while (true) {
+            int refCount = mRefCount.get();
+            if (refCount <= 0) {
+                throw new IllegalStateException("snapshot already released");
+            }
+            if (mRefCount.compareAndSet(refCount, refCount + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放后放回对象池
+     *
+     * @throws IllegalStateException 释放次数多于引用次数
+     */
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount > 0) {
+            return;
+        }
+        if (refCount < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("snapshot already released");
+        }
+        synchronized (sPool) {
+            if (sPoolSize < POOL_SIZE) {
+                sPool[sPoolSize++] = this;
+            }
+        }
+    }
+
+    private void checkAlive() {
+        if (mRefCount.get() <= 0) {
+            throw new IllegalStateException("snapshot already released");
+        }
+    }
+
+    /**
+     * 这一次尝试的编号，对象被复用后会变化
+     *
+     * @throws IllegalStateException 已经被释放
+     */
+    public int getGeneration() {
+        int generation = mGeneration;
+        checkAlive();
+        return generation;
+    }
+
+    /**
+     * 快照是否仍然是 generation 对应的那一次尝试并且没有被释放
+     */
+    public boolean isValid(int generation) {
+        // 读引用计数前后各读一次编号，中间被释放并复用时编号已经变化
+        return mGeneration == generation && mRefCount.get() > 0 && mGeneration == generation;
+    }
+
+    /**
+     * @throws IllegalStateException 已经被释放或者已经被另一次尝试复用
+     */
+    public void checkGeneration(int generation) {
+        if (!isValid(generation)) {
+            throw new IllegalStateException("snapshot released or reused");
+        }
+    }
+
+    public int getCount() {
+        checkAlive();
+        return mCount;
+    }
+
+    @Override
+    public int size() {
+        checkAlive();
+        return mLength;
+    }
+
+    @Override
+    public int get(int position) {
+        checkAlive();
+        if (position < 0 || position >= mLength) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mLength);
+        }
+        return mIds[position] & 0xFF;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        checkAlive();
+        for (int i = 0; i < mLength; i++) {
+            if ((mIds[i] & 0xFF) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 复制到 out 中，不分配对象
+     *
+     * @return 节点个数
+     * @throws IndexOutOfBoundsException out 不够大
+     */
+    public int copyTo(int[] out) {
+        checkAlive();
+        if (out.length < mLength) {
+            throw new IndexOutOfBoundsException("need " + mLength + ", got " + out.length);
+        }
+        for (int i = 0; i < mLength; i++) {
+            out[i] = mIds[i] & 0xFF;
+        }
+        return mLength;
+    }
+
+    /**
+     * 转换为可以长期保存的 Pattern（会分配对象）
+     */
+    public Pattern toPattern() {
+        return Pattern.of(getCount(), this);
+    }
+
+    @Override
+    public String toString() {
+        checkAlive();
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < mLength; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mIds[i] & 0xFF);
+        }
+        return builder.append(']').toString();
+    }
+}
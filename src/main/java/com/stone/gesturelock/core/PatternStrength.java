@@ -0,0 +1,90 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  图案强度的计算结果，由 PatternStrengthMeter 填充，可以重复使用。
+ */
+
+public final class PatternStrength {
+
+    public static final int LEVEL_WEAK = 0;
+    public static final int LEVEL_FAIR = 1;
+    public static final int LEVEL_GOOD = 2;
+    public static final int LEVEL_STRONG = 3;
+
+    int mLength;
+    int mDirectionChanges;
+    int mOverlaps;
+    double mSpaceBits;
+    boolean isSpaceExact;
+    double mScore;
+    int mLevel;
+    boolean isBlacklisted;
+
+    /**
+     * 节点个数
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * 相邻两段连线方向不同的次数
+     */
+    public int getDirectionChanges() {
+        return mDirectionChanges;
+    }
+
+    /**
+     * 经过已经选中的格子的连线个数
+     */
+    public int getOverlaps() {
+        return mOverlaps;
+    }
+
+    /**
+     * 同样长度的合法图案个数的 log2
+     */
+    public double getSpaceBits() {
+        return mSpaceBits;
+    }
+
+    /**
+     * getSpaceBits 是精确计数还是估计（格子太多时）
+     */
+    public boolean isSpaceExact() {
+        return isSpaceExact;
+    }
+
+    /**
+     * 综合得分 = getSpaceBits() + 2 * (getDirectionChanges() + getOverlaps())
+     */
+    public double getScore() {
+        return mScore;
+    }
+
+    /**
+     * LEVEL_*，在黑名单中时为 LEVEL_WEAK
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 是否在常见图案的黑名单（PatternBlacklist）中
+     */
+    public boolean isBlacklisted() {
+        return isBlacklisted;
+    }
+
+    void markBlacklisted() {
+        isBlacklisted = true;
+        mLevel = LEVEL_WEAK;
+    }
+
+    @Override
+    public String toString() {
+        return "PatternStrength{length=" + mLength + ", directionChanges=" + mDirectionChanges
+                + ", overlaps=" + mOverlaps + ", spaceBits=" + mSpaceBits + (isSpaceExact ? "" : "~")
+                + ", score=" + mScore + ", level=" + mLevel + (isBlacklisted ? ", blacklisted" : "") + '}';
+    }
+}
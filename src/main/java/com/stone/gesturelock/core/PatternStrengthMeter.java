@@ -0,0 +1,241 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ *  计算图案强度：长度、方向变化次数、经过已选格子的次数，以及同样长度的合法图案个数（图案空间）。
+ *
+ *  图案空间按 GridTopology 的规则（经过的格子必须已经选中）计数，用 (已选格子的位掩码, 最后一个格子)
+ *  上的动态规划逐层计算，每层只保存当前和下一层的状态，4*4 的网格约 3MB、几十毫秒，
+ *  而直接枚举 4*4 的图案需要上万亿次。格子超过 MAX_EXACT_CELLS 个时状态数不可接受，
+ *  改为按排列数乘以每步可走的平均比例估计。
+ *
+ *  每个大小只计算一次，通过 of 在进程内共享；第一次调用 of 较慢，界面线程中应使用 ofAsync 在后台计算，
+ *  之后 analyze 只需遍历一次图案（微秒级）。
+ */
+
+public final class PatternStrengthMeter {
+
+    /**
+     * 精确计数的最大格子个数
+     */
+    static final int MAX_EXACT_CELLS = 16;
+
+    private static final double WEAK_SCORE = 16;
+    private static final double FAIR_SCORE = 22;
+    private static final double GOOD_SCORE = 28;
+
+    private static final PatternStrengthMeter[] sCache = new PatternStrengthMeter[16];
+
+    private final GridTopology mTopology;
+    /**
+     * 每个长度的合法图案个数的 log2
+     */
+    private final double[] mSpaceBits;
+    private final boolean isExact;
+
+    public static PatternStrengthMeter of(int count) {
+        GridTopology topology = GridTopology.of(count);
+        synchronized (sCache) {
+            PatternStrengthMeter meter = sCache[count];
+            if (meter == null) {
+                meter = new PatternStrengthMeter(topology);
+                sCache[count] = meter;
+            }
+            return meter;
+        }
+    }
+
+    /**
+     * 在后台线程中计算，已经计算过时返回已完成的 Future
+     */
+    public static Future<PatternStrengthMeter> ofAsync(final int count) {
+        GridTopology.of(count);
+        synchronized (sCache) {
+            if (sCache[count] != null) {
+                return BackgroundLoader.completed(sCache[count]);
+            }
+        }
+        return BackgroundLoader.submit(new Callable<PatternStrengthMeter>() {
+            @Override
+            public PatternStrengthMeter call() {
+                return of(count);
+            }
+        });
+    }
+
+    private PatternStrengthMeter(GridTopology topology) {
+        mTopology = topology;
+        int cells = topology.getCellCount();
+        mSpaceBits = new double[cells + 1];
+        isExact = cells <= MAX_EXACT_CELLS;
+        if (isExact) {
+            long[] counts = countByLength(topology);
+            for (int length = 0; length <= cells; length++) {
+                mSpaceBits[length] = counts[length] > 0 ? Math.log(counts[length]) / Math.log(2) : 0;
+            }
+        } else {
+            estimateByLength(topology, mSpaceBits);
+        }
+    }
+
+    /**
+     * 每个长度的合法图案个数
+     */
+    static long[] countByLength(GridTopology topology) {
+        int n = topology.getCellCount();
+        int fullMask = (1 << n) - 1;
+        // 位掩码在同样大小（已选格子个数）的位掩码中的序号
+        int[] rank = new int[1 << n];
+        int[] layerSize = new int[n + 1];
+        for (int mask = 0; mask <= fullMask; mask++) {
+            int bits = Integer.bitCount(mask);
+            rank[mask] = layerSize[bits]++;
+        }
+        long[] counts = new long[n + 1];
+        counts[0] = 1;
+        // 当前层：每个（位掩码，最后一个格子）结尾的图案个数
+        long[] layer = new long[layerSize[1] * n];
+        for (int cell = 0; cell < n; cell++) {
+            layer[rank[1 << cell] * n + cell] = 1;
+        }
+        for (int bits = 1; bits <= n; bits++) {
+            long[] next = bits < n ? new long[layerSize[bits + 1] * n] : null;
+            long total = 0;
+            for (int mask = 0; mask <= fullMask; mask++) {
+                if (Integer.bitCount(mask) != bits) {
+                    continue;
+                }
+                int base = rank[mask] * n;
+                for (int last = 0; last < n; last++) {
+                    long ways = layer[base + last];
+                    if (ways == 0) {
+                        continue;
+                    }
+                    total += ways;
+                    if (next == null) {
+                        continue;
+                    }
+                    int free = ~mask & fullMask;
+                    while (free != 0) {
+                        int cell = Integer.numberOfTrailingZeros(free);
+                        free &= free - 1;
+                        if ((topology.betweenMask(last, cell) & ~mask) == 0) {
+                            int nextMask = mask | (1 << cell);
+                            next[rank[nextMask] * n + cell] += ways;
+                        }
+                    }
+                }
+            }
+            counts[bits] = total;
+            layer = next;
+        }
+        return counts;
+    }
+
+    /**
+     * 格子太多时的估计：排列数乘以（不经过其他格子的有序格子对的比例）^(length - 1)
+     */
+    private static void estimateByLength(GridTopology topology, double[] out) {
+        int n = topology.getCellCount();
+        long direct = 0;
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                if (a != b && topology.betweenCount(a, b) == 0) {
+                    direct++;
+                }
+            }
+        }
+        double stepBits = Math.log((double) direct / ((long) n * (n - 1))) / Math.log(2);
+        double bits = 0;
+        out[0] = 0;
+        for (int length = 1; length <= n; length++) {
+            bits += Math.log(n - length + 1) / Math.log(2);
+            out[length] = bits + (length > 1 ? (length - 1) * stepBits : 0);
+        }
+    }
+
+    public GridTopology getTopology() {
+        return mTopology;
+    }
+
+    /**
+     * 同样长度的合法图案个数的 log2
+     */
+    public double getSpaceBits(int length) {
+        return mSpaceBits[Math.max(0, Math.min(length, mSpaceBits.length - 1))];
+    }
+
+    /**
+     * 计算图案强度，不分配对象
+     *
+     * @param pattern 格子id从1开始
+     * @param out     保存结果
+     */
+    public void analyze(PatternView pattern, PatternStrength out) {
+        int count = mTopology.getCount();
+        int length = pattern.size();
+        int directionChanges = 0;
+        int overlaps = 0;
+        int lastDx = 0;
+        int lastDy = 0;
+        for (int i = 1; i < length; i++) {
+            int from = pattern.get(i - 1) - 1;
+            int to = pattern.get(i) - 1;
+            int dx = to % count - from % count;
+            int dy = to / count - from / count;
+            int gcd = GridTopology.gcd(Math.abs(dx), Math.abs(dy));
+            if (gcd > 0) {
+                dx /= gcd;
+                dy /= gcd;
+            }
+            if (i > 1 && (dx != lastDx || dy != lastDy)) {
+                directionChanges++;
+            }
+            lastDx = dx;
+            lastDy = dy;
+            if (passesSelected(pattern, i, from, to)) {
+                overlaps++;
+            }
+        }
+        out.mLength = length;
+        out.mDirectionChanges = directionChanges;
+        out.mOverlaps = overlaps;
+        out.mSpaceBits = getSpaceBits(length);
+        out.isSpaceExact = isExact;
+        out.mScore = out.mSpaceBits + 2 * (directionChanges + overlaps);
+        out.mLevel = levelOf(out.mScore);
+        out.isBlacklisted = false;
+    }
+
+    /**
+     * 第 end 个节点之前的连线是否经过已经选中的格子
+     */
+    private boolean passesSelected(PatternView pattern, int end, int from, int to) {
+        int between = mTopology.betweenCount(from, to);
+        if (between == 0) {
+            return false;
+        }
+        for (int k = 0; k < between; k++) {
+            int id = mTopology.between(from, to, k) + 1;
+            for (int i = 0; i < end - 1; i++) {
+                if (pattern.get(i) == id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static int levelOf(double score) {
+        if (score < WEAK_SCORE) {
+            return PatternStrength.LEVEL_WEAK;
+        } else if (score < FAIR_SCORE) {
+            return PatternStrength.LEVEL_FAIR;
+        } else if (score < GOOD_SCORE) {
+            return PatternStrength.LEVEL_GOOD;
+        }
+        return PatternStrength.LEVEL_STRONG;
+    }
+}
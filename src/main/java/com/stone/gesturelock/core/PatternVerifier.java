@@ -0,0 +1,113 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  在后台线程计算和比较 PatternHash。
+ *
+ *  所有任务都在同一个单线程线程池中按提交顺序执行，因此先提交的 hash 一定在之后的 verify 之前完成。
+ *  队列不限长度，提交不会被拒绝，调用的线程（通常是界面线程）不会因为队列满而自己计算摘要；
+ *  每个引擎同时最多只有一个比较，排队的任务不会无限增长。线程空闲一段时间后会退出。
+ */
+
+public final class PatternVerifier {
+
+    public static final int RESULT_MISMATCH = 0;
+    public static final int RESULT_MATCHED = 1;
+    /**
+     * 没有设置答案以外的原因导致无法比较，例如任务被取消或者摘要算法不可用
+     */
+    public static final int RESULT_ERROR = -1;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GestureLock-verifier");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 比较结果的回调，在后台线程中调用
+     */
+    public interface Callback {
+        void onVerified(int result);
+    }
+
+    private PatternVerifier() {
+    }
+
+    /**
+     * 在后台计算答案的摘要
+     */
+    public static Future<PatternHash> hash(Pattern answer) {
+        return hash(answer, null);
+    }
+
+    /**
+     * 在后台计算答案的摘要
+     *
+     * @param done 计算完成（或失败、被取消）后在后台线程中调用，为null时不回调
+     */
+    public static Future<PatternHash> hash(final Pattern answer, final Runnable done) {
+        FutureTask<PatternHash> task = new FutureTask<PatternHash>(new Callable<PatternHash>() {
+            @Override
+            public PatternHash call() {
+                return PatternHash.create(answer);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (done != null) {
+                    done.run();
+                }
+            }
+        };
+        sExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * 在后台将候选图案与答案比较
+     *
+     * @param answer    答案的摘要，为null或结果为null时视为不匹配
+     * @param candidate 用户绘制的图案
+     * @param callback  在后台线程中回调，任务被取消时不回调
+     */
+    public static Future<?> verify(final Future<PatternHash> answer, final Pattern candidate,
+                                   final Callback callback) {
+        return sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                int result;
+                try {
+                    PatternHash hash = answer == null ? null : answer.get();
+                    result = hash != null && hash.matches(candidate) ? RESULT_MATCHED : RESULT_MISMATCH;
+                } catch (InterruptedException e) {
+                    // 被取消了
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException | IllegalStateException e) {
+                    result = RESULT_ERROR;
+                }
+                if (!Thread.currentThread().isInterrupted()) {
+                    callback.onVerified(result);
+                }
+            }
+        });
+    }
+}
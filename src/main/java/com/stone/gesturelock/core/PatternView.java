@@ -0,0 +1,25 @@
+package com.stone.gesturelock.core;
+
+/**
+ *  手势图案的只读视图，按顺序保存格子的id（从1开始）。
+ *
+ *  所有方法都只读取基本类型，不会装箱也不会分配对象。
+ */
+
+public interface PatternView {
+
+    /**
+     * 图案中格子的个数
+     */
+    int size();
+
+    /**
+     * 第 position 个被选中的格子id
+     */
+    int get(int position);
+
+    /**
+     * 格子是否已被选中
+     */
+    boolean contains(int id);
+}
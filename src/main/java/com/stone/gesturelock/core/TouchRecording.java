@@ -0,0 +1,349 @@
+package com.stone.gesturelock.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ *  记录手势面板收到的原始触摸事件，用于之后通过 TouchReplayer 重放。
+ *
+ *  每个事件包含动作（与 MotionEvent.ACTION_* 相同）和若干触点（历史触点在前，事件本身的触点在最后），
+ *  每个触点包含时间（毫秒，与 MotionEvent.getEventTime 同一时基）和坐标。
+ *  同时保存录制时的网格几何参数、命中区域和模式，重放时命中判断与录制时完全一致。
+ *  一个录制只有一组几何参数和模式，录制过程中它们变化后（setCount、旋转、切换模式）不再记录，
+ *  需要用新的 TouchRecording 继续录制。只记录交给了 GestureEngine 处理的事件。
+ *
+ *  二进制格式（大端）：
+ *  magic(4) version(1) action(1) count(1) flags(1) cellSize(4) margin(4) originX(4) originY(4) hitDiameter(4)
+ *  startTime(8) eventCount(4) sampleCount(4)，
+ *  之后每个事件：action(1) samples(varint)，每个触点：dt(varint，与上一个触点的时间差) dx dy(zigzag varint，与上一个触点的差)。
+ *
+ *  录制时只追加到预先分配、按需翻倍的数组中，超过 MAX_SAMPLES 后不再记录。只能在一个线程中录制。
+ */
+
+public final class TouchRecording {
+
+    public static final int TOUCH_DOWN = 0;
+    public static final int TOUCH_UP = 1;
+    public static final int TOUCH_MOVE = 2;
+    public static final int TOUCH_CANCEL = 3;
+
+    /**
+     * 最多记录的触点个数
+     */
+    public static final int MAX_SAMPLES = 64 * 1024;
+
+    private static final int MAGIC = 0x474C5431; // "GLT1"
+    private static final int VERSION = 1;
+    private static final int FLAG_CIRCULAR = 1;
+    private static final int FLAG_SEGMENT_HIT_TEST = 1 << 1;
+    private static final int FLAG_SELECT_BETWEEN = 1 << 2;
+
+    private int mAction = GestureEngine.ACTION_UNDEFINED;
+    private int mCount;
+    private int mCellSize;
+    private int mMargin;
+    private int mOriginX;
+    private int mOriginY;
+    private int mHitDiameter;
+    private boolean isCircular;
+    private boolean isSegmentHitTest;
+    private boolean isSelectBetween;
+    /**
+     * 录制过程中几何参数或模式发生了变化，之后不再记录
+     */
+    private boolean isStopped;
+
+    private int mEventCount;
+    private byte[] mEventActions = new byte[64];
+    /**
+     * 每个事件第一个触点的下标，最后一个元素之后为 mSampleCount
+     */
+    private int[] mEventStarts = new int[64];
+
+    private int mSampleCount;
+    private long[] mTimes = new long[256];
+    private int[] mXs = new int[256];
+    private int[] mYs = new int[256];
+
+    /**
+     * 录制时的网格几何参数和模式，在开始录制前调用
+     */
+    public void setGeometry(GridHitTester hitTester, boolean segmentHitTest, int action) {
+        this.mCount = hitTester.getCount();
+        this.mCellSize = hitTester.getCellSize();
+        this.mMargin = hitTester.getMargin();
+        this.mOriginX = hitTester.getOriginX();
+        this.mOriginY = hitTester.getOriginY();
+        this.mHitDiameter = hitTester.getHitDiameter();
+        this.isCircular = hitTester.isCircular();
+        this.isSegmentHitTest = segmentHitTest;
+        this.mAction = action;
+    }
+
+    /**
+     * 录制时是否自动选中两个格子之间经过的格子
+     */
+    public void setSelectBetween(boolean selectBetween) {
+        this.isSelectBetween = selectBetween;
+    }
+
+    /**
+     * 将录制时的几何参数设置到 hitTester
+     */
+    public void applyGeometry(GridHitTester hitTester) {
+        hitTester.setGeometry(mCount, mCellSize, mMargin, mOriginX, mOriginY);
+        hitTester.setHitArea(mHitDiameter, isCircular);
+    }
+
+    /**
+     * 手指按下时调用：还没有记录事件时保存几何参数和模式，否则检查它们是否与录制时相同，
+     * 不同时停止录制，之前的事件仍然可以按原来的参数重放
+     *
+     * @return 几何参数和模式与录制时相同并且没有停止录制时返回true
+     */
+    public boolean beginGesture(GridHitTester hitTester, boolean segmentHitTest, boolean selectBetween, int action) {
+        if (isStopped) {
+            return false;
+        }
+        if (mEventCount == 0) {
+            setGeometry(hitTester, segmentHitTest, action);
+            setSelectBetween(selectBetween);
+            return true;
+        }
+        if (mCount != hitTester.getCount() || mCellSize != hitTester.getCellSize()
+                || mMargin != hitTester.getMargin() || mOriginX != hitTester.getOriginX()
+                || mOriginY != hitTester.getOriginY() || mHitDiameter != hitTester.getHitDiameter()
+                || isCircular != hitTester.isCircular() || isSegmentHitTest != segmentHitTest
+                || isSelectBetween != selectBetween || mAction != action) {
+            isStopped = true;
+        }
+        return !isStopped;
+    }
+
+    /**
+     * 开始一个事件，之后通过 addSample 添加它的触点
+     *
+     * @return 已经记满或者已经停止录制时返回false，不再记录
+     */
+    public boolean beginEvent(int action) {
+        if (mSampleCount >= MAX_SAMPLES || isStopped) {
+            return false;
+        }
+        if (mEventCount == mEventActions.length) {
+            mEventActions = Arrays.copyOf(mEventActions, mEventCount * 2);
+            mEventStarts = Arrays.copyOf(mEventStarts, mEventCount * 2);
+        }
+        mEventActions[mEventCount] = (byte) action;
+        mEventStarts[mEventCount] = mSampleCount;
+        mEventCount++;
+        return true;
+    }
+
+    public void addSample(long time, int x, int y) {
+        if (mSampleCount >= MAX_SAMPLES || mEventCount == 0) {
+            return;
+        }
+        if (mSampleCount == mTimes.length) {
+            int capacity = Math.min(MAX_SAMPLES, mSampleCount * 2);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mXs = Arrays.copyOf(mXs, capacity);
+            mYs = Arrays.copyOf(mYs, capacity);
+        }
+        mTimes[mSampleCount] = time;
+        mXs[mSampleCount] = x;
+        mYs[mSampleCount] = y;
+        mSampleCount++;
+    }
+
+    public void clear() {
+        mEventCount = 0;
+        mSampleCount = 0;
+        isStopped = false;
+    }
+
+    public boolean isFull() {
+        return mSampleCount >= MAX_SAMPLES;
+    }
+
+    /**
+     * 是否因为几何参数或模式变化停止了录制
+     */
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    public int getAction() {
+        return mAction;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isSegmentHitTest() {
+        return isSegmentHitTest;
+    }
+
+    public boolean isSelectBetween() {
+        return isSelectBetween;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public int getEventAction(int event) {
+        return mEventActions[event];
+    }
+
+    /**
+     * 事件的第一个触点的下标
+     */
+    public int getEventStart(int event) {
+        return mEventStarts[event];
+    }
+
+    /**
+     * 事件的最后一个触点的下标 + 1
+     */
+    public int getEventEnd(int event) {
+        return event + 1 < mEventCount ? mEventStarts[event + 1] : mSampleCount;
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getSampleTime(int sample) {
+        return mTimes[sample];
+    }
+
+    public int getSampleX(int sample) {
+        return mXs[sample];
+    }
+
+    public int getSampleY(int sample) {
+        return mYs[sample];
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(mAction >> 8);
+        out.writeByte(mCount);
+        out.writeByte((isCircular ? FLAG_CIRCULAR : 0) | (isSegmentHitTest ? FLAG_SEGMENT_HIT_TEST : 0)
+                | (isSelectBetween ? FLAG_SELECT_BETWEEN : 0));
+        out.writeInt(mCellSize);
+        out.writeInt(mMargin);
+        out.writeInt(mOriginX);
+        out.writeInt(mOriginY);
+        out.writeInt(mHitDiameter);
+        long lastTime = mSampleCount > 0 ? mTimes[0] : 0;
+        out.writeLong(lastTime);
+        out.writeInt(mEventCount);
+        out.writeInt(mSampleCount);
+        int lastX = 0;
+        int lastY = 0;
+        for (int e = 0; e < mEventCount; e++) {
+            int start = getEventStart(e);
+            int end = getEventEnd(e);
+            out.writeByte(mEventActions[e]);
+            writeVarint(out, end - start);
+            for (int s = start; s < end; s++) {
+                // 时间不会倒退，倒退时按0记录
+                writeVarint(out, (int) Math.max(0, Math.min(Integer.MAX_VALUE, mTimes[s] - lastTime)));
+                writeVarint(out, zigzag(mXs[s] - lastX));
+                writeVarint(out, zigzag(mYs[s] - lastY));
+                lastTime = Math.max(lastTime, mTimes[s]);
+                lastX = mXs[s];
+                lastY = mYs[s];
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @throws IOException 格式不正确或者数据不完整
+     */
+    public static TouchRecording read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("not a touch recording");
+        }
+        TouchRecording recording = new TouchRecording();
+        recording.mAction = in.readUnsignedByte() << 8;
+        recording.mCount = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        recording.isCircular = (flags & FLAG_CIRCULAR) != 0;
+        recording.isSegmentHitTest = (flags & FLAG_SEGMENT_HIT_TEST) != 0;
+        recording.isSelectBetween = (flags & FLAG_SELECT_BETWEEN) != 0;
+        recording.mCellSize = in.readInt();
+        recording.mMargin = in.readInt();
+        recording.mOriginX = in.readInt();
+        recording.mOriginY = in.readInt();
+        recording.mHitDiameter = in.readInt();
+        long time = in.readLong();
+        int eventCount = in.readInt();
+        int sampleCount = in.readInt();
+        if (eventCount < 0 || sampleCount < 0 || sampleCount > MAX_SAMPLES || eventCount > MAX_SAMPLES) {
+            throw new IOException("invalid size: " + eventCount + " events, " + sampleCount + " samples");
+        }
+        recording.mEventActions = new byte[Math.max(1, eventCount)];
+        recording.mEventStarts = new int[Math.max(1, eventCount)];
+        recording.mTimes = new long[Math.max(1, sampleCount)];
+        recording.mXs = new int[recording.mTimes.length];
+        recording.mYs = new int[recording.mTimes.length];
+        int x = 0;
+        int y = 0;
+        for (int e = 0; e < eventCount; e++) {
+            recording.beginEvent(in.readByte());
+            int samples = readVarint(in);
+            if (samples < 0 || recording.mSampleCount + samples > sampleCount) {
+                throw new IOException("invalid sample count at event " + e);
+            }
+            for (int s = 0; s < samples; s++) {
+                time += readVarint(in);
+                x += unzigzag(readVarint(in));
+                y += unzigzag(readVarint(in));
+                recording.addSample(time, x, y);
+            }
+        }
+        if (recording.mSampleCount != sampleCount) {
+            throw new IOException("expected " + sampleCount + " samples, read " + recording.mSampleCount);
+        }
+        return recording;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,93 @@
+package com.stone.gesturelock.core;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  将 TouchRecording 重放到 GestureEngine 中，结果是确定的：
+ *  使用录制时的几何参数和命中方式；手指抬起后如果需要后台比较，等待比较完成并在调用线程中处理结果，
+ *  再处理下一个事件。所有回调都在调用线程中执行。
+ *
+ *  重放前由调用者设置模式、答案和回调，重放会修改 engine 的格子个数、几何参数和结果线程。
+ */
+
+public final class TouchReplayer {
+
+    /**
+     * 等待后台比较的最长时间
+     */
+    private static final long VERIFY_TIMEOUT_MILLIS = 10000L;
+
+    private final BlockingQueue<Runnable> mResults = new LinkedBlockingQueue<>();
+    private final Executor mResultExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mResults.offer(command);
+        }
+    };
+
+    /**
+     * 上一次重放中处理触摸事件的时间（纳秒），不包括等待后台比较
+     */
+    private long mTouchNanos;
+
+    /**
+     * @return 重放的事件个数
+     * @throws IllegalStateException 后台比较超时
+     */
+    public int replay(TouchRecording recording, GestureEngine engine) throws InterruptedException {
+        if (engine.getCount() != recording.getCount()) {
+            engine.setCount(recording.getCount());
+        }
+        recording.applyGeometry(engine.getHitTester());
+        engine.setSegmentHitTest(recording.isSegmentHitTest());
+        engine.setSelectBetween(recording.isSelectBetween());
+        engine.setResultExecutor(mResultExecutor);
+        mResults.clear();
+        mTouchNanos = 0;
+
+        int events = recording.getEventCount();
+        for (int e = 0; e < events; e++) {
+            int start = recording.getEventStart(e);
+            int end = recording.getEventEnd(e);
+            if (end == start) {
+                continue;
+            }
+            long startNanos = System.nanoTime();
+            switch (recording.getEventAction(e)) {
+                case TouchRecording.TOUCH_DOWN:
+                    engine.onTouchDown(recording.getSampleX(end - 1), recording.getSampleY(end - 1));
+                    break;
+                case TouchRecording.TOUCH_MOVE:
+                    for (int s = start; s < end; s++) {
+                        engine.onTouchMove(recording.getSampleX(s), recording.getSampleY(s));
+                    }
+                    break;
+                case TouchRecording.TOUCH_UP:
+                    engine.onTouchUp();
+                    break;
+                default:
+                    break;
+            }
+            mTouchNanos += System.nanoTime() - startNanos;
+            awaitVerification(engine);
+        }
+        return events;
+    }
+
+    public long getTouchNanos() {
+        return mTouchNanos;
+    }
+
+    private void awaitVerification(GestureEngine engine) throws InterruptedException {
+        while (engine.getState() == GestureEngine.STATE_VERIFYING) {
+            Runnable result = mResults.poll(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (result == null) {
+                throw new IllegalStateException("verification timed out");
+            }
+            result.run();
+        }
+    }
+}
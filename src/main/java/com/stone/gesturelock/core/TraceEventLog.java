@@ -0,0 +1,251 @@
+package com.stone.gesturelock.core;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ *  把跟踪区间记录到内存中的环形缓冲区，满了之后覆盖最早的，可以导出为 Chrome trace-event JSON
+ *  （chrome://tracing、Perfetto 可以直接打开）或者更紧凑的二进制格式（readBinary 读回后再导出 JSON）。
+ *
+ *  每个区间在结束时记录为一个完整事件（ph = "X"），开始时间使用 System.nanoTime，
+ *  在 Android 上与 systrace 的时钟（CLOCK_MONOTONIC）相同。线程id默认为 Thread.getId，它不是内核的线程id，
+ *  与系统跟踪对齐时需要通过 setThreadIdProvider 使用内核线程id（Android 上为 SystemTracer.KERNEL_THREAD_IDS）。
+ *
+ *  记录时不分配对象，所有方法都是线程安全的。
+ *
+ *  二进制格式（大端）：magic(4) version(1) pid(4) eventCount(4)，每个事件：section(1) thread(8) start(8) duration(8)。
+ */
+
+public final class TraceEventLog extends GestureTracer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x474C5445; // "GLTE"
+    private static final int VERSION = 1;
+    /**
+     * 最多同时未结束的区间个数，超过时忽略新的区间
+     */
+    private static final int MAX_OPEN = 32;
+    /**
+     * readBinary 最多读取的事件个数
+     */
+    private static final int MAX_READ_EVENTS = 1 << 24;
+
+    /**
+     * 提供当前线程的id，core 包不依赖 Android，由调用者提供内核线程id
+     */
+    public interface ThreadIdProvider {
+
+        long currentThreadId();
+    }
+
+    /**
+     * 使用 Thread.getId，只能区分 JVM 中的线程
+     */
+    public static final ThreadIdProvider JAVA_THREAD_IDS = new ThreadIdProvider() {
+        @Override
+        public long currentThreadId() {
+            return Thread.currentThread().getId();
+        }
+    };
+
+    private final int mPid;
+    private volatile ThreadIdProvider mThreadIds = JAVA_THREAD_IDS;
+
+    private final byte[] mSections;
+    private final long[] mThreads;
+    private final long[] mStarts;
+    private final long[] mDurations;
+    /**
+     * 下一个事件写入的位置和已经记录的事件总数
+     */
+    private int mNext;
+    private long mTotal;
+
+    private final int[] mOpenSections = new int[MAX_OPEN];
+    private final long[] mOpenThreads = new long[MAX_OPEN];
+    private final long[] mOpenStarts = new long[MAX_OPEN];
+    private int mOpenCount;
+
+    /**
+     * @param capacity 最多保存的事件个数
+     * @param pid      导出时使用的进程id，例如 android.os.Process.myPid()
+     */
+    public TraceEventLog(int capacity, int pid) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.mPid = pid;
+        this.mSections = new byte[capacity];
+        this.mThreads = new long[capacity];
+        this.mStarts = new long[capacity];
+        this.mDurations = new long[capacity];
+    }
+
+    /**
+     * 设置线程id的来源，应在开始记录前设置
+     *
+     * @param provider 为null时使用 JAVA_THREAD_IDS
+     */
+    public void setThreadIdProvider(ThreadIdProvider provider) {
+        this.mThreadIds = provider != null ? provider : JAVA_THREAD_IDS;
+    }
+
+    @Override
+    public void beginSection(int section) {
+        long thread = mThreadIds.currentThreadId();
+        synchronized (this) {
+            if (mOpenCount == MAX_OPEN) {
+                return;
+            }
+            mOpenSections[mOpenCount] = section;
+            mOpenThreads[mOpenCount] = thread;
+            mOpenStarts[mOpenCount] = System.nanoTime();
+            mOpenCount++;
+        }
+    }
+
+    @Override
+    public void endSection(int section) {
+        long now = System.nanoTime();
+        long thread = mThreadIds.currentThreadId();
+        synchronized (this) {
+            for (int i = mOpenCount - 1; i >= 0; i--) {
+                if (mOpenSections[i] == section && mOpenThreads[i] == thread) {
+                    add(section, thread, mOpenStarts[i], now - mOpenStarts[i]);
+                    System.arraycopy(mOpenSections, i + 1, mOpenSections, i, mOpenCount - i - 1);
+                    System.arraycopy(mOpenThreads, i + 1, mOpenThreads, i, mOpenCount - i - 1);
+                    System.arraycopy(mOpenStarts, i + 1, mOpenStarts, i, mOpenCount - i - 1);
+                    mOpenCount--;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void add(int section, long thread, long start, long duration) {
+        mSections[mNext] = (byte) section;
+        mThreads[mNext] = thread;
+        mStarts[mNext] = start;
+        mDurations[mNext] = duration;
+        mNext = (mNext + 1) % mSections.length;
+        mTotal++;
+    }
+
+    /**
+     * 保存的事件个数
+     */
+    public synchronized int size() {
+        return (int) Math.min(mTotal, mSections.length);
+    }
+
+    /**
+     * 因为缓冲区满被覆盖的事件个数
+     */
+    public synchronized long getOverwritten() {
+        return Math.max(0, mTotal - mSections.length);
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mTotal = 0;
+        mOpenCount = 0;
+    }
+
+    /**
+     * 按时间顺序复制保存的事件，导出时使用
+     */
+    private synchronized TraceEventLog copy() {
+        int size = size();
+        TraceEventLog copy = new TraceEventLog(Math.max(1, size), mPid);
+        int first = mTotal > mSections.length ? mNext : 0;
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % mSections.length;
+            copy.add(mSections[index], mThreads[index], mStarts[index], mDurations[index]);
+        }
+        return copy;
+    }
+
+    /**
+     * 导出为 Chrome trace-event JSON，不关闭 stream
+     */
+    public void writeJson(OutputStream stream) throws IOException {
+        TraceEventLog events = copy();
+        int size = events.size();
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, UTF_8));
+        out.write("{\"traceEvents\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("\n{\"name\":\"");
+            out.write(sectionName(events.mSections[i]));
+            out.write("\",\"cat\":\"gesturelock\",\"ph\":\"X\",\"ts\":");
+            out.write(micros(events.mStarts[i]));
+            out.write(",\"dur\":");
+            out.write(micros(events.mDurations[i]));
+            out.write(",\"pid\":");
+            out.write(Integer.toString(mPid));
+            out.write(",\"tid\":");
+            out.write(Long.toString(events.mThreads[i]));
+            out.write('}');
+        }
+        out.write("\n],\"displayTimeUnit\":\"ns\"}\n");
+        out.flush();
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000.0);
+    }
+
+    /**
+     * 导出为二进制格式，不关闭 stream
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        TraceEventLog events = copy();
+        int size = events.size();
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(mPid);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeByte(events.mSections[i]);
+            out.writeLong(events.mThreads[i]);
+            out.writeLong(events.mStarts[i]);
+            out.writeLong(events.mDurations[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * @throws IOException 格式不正确或者数据不完整
+     */
+    public static TraceEventLog readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("not a trace event log");
+        }
+        int pid = in.readInt();
+        int size = in.readInt();
+        if (size < 0 || size > MAX_READ_EVENTS) {
+            throw new IOException("invalid size: " + size);
+        }
+        TraceEventLog log = new TraceEventLog(Math.max(1, size), pid);
+        for (int i = 0; i < size; i++) {
+            int section = in.readUnsignedByte();
+            long thread = in.readLong();
+            long start = in.readLong();
+            long duration = in.readLong();
+            log.add(section, thread, start, duration);
+        }
+        return log;
+    }
+}